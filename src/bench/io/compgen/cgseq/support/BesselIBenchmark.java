@@ -0,0 +1,60 @@
+package io.compgen.cgseq.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BesselI across the orders and arguments seen by the Skellam caller. The order is the
+ * difference between allele counts and x is 2*sqrt(mu1*mu2), so x grows with depth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BesselIBenchmark {
+	@Param({"0", "5", "20", "60", "200"})
+	public int order;
+
+	@Param({"1.0", "10.0", "60.0", "200.0", "600.0"})
+	public double x;
+
+	private double[] work;
+
+	@Setup
+	public void setup() {
+		work = new double[BesselI.workspaceSize(order)];
+	}
+
+	@Benchmark
+	public double value() {
+		return BesselI.value(order, x);
+	}
+
+	@Benchmark
+	public double valueScaled() {
+		return BesselI.value(order, x, true);
+	}
+
+	@Benchmark
+	public double valueWorkspace() {
+		return BesselI.value(order, x, true, work);
+	}
+
+	@Benchmark
+	public double logValue() {
+		return BesselI.logValue(order, x, work);
+	}
+}
@@ -0,0 +1,77 @@
+package io.compgen.cgseq.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The distribution functions used by the variant callers, at a given read depth. The
+ * arguments mirror a call: a het site (minor count ~ depth/3), the hom model (mu1=depth,
+ * mu2=1), and a strand-bias test on the minor allele.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBenchmark {
+	@Param({"10", "30", "100", "300", "600"})
+	public int depth;
+
+	private int diff;
+	private int minor;
+	private double het;
+
+	@Setup
+	public void setup() {
+		minor = depth / 3;
+		diff = depth - 2 * minor;
+		het = depth * 0.5;
+	}
+
+	@Benchmark
+	public double skellamHet() {
+		return Stats.skellam(diff, het, het);
+	}
+
+	@Benchmark
+	public double skellamHom() {
+		return Stats.skellam(diff, depth, 1);
+	}
+
+	@Benchmark
+	public double logSkellamHet() {
+		return Stats.logSkellam(diff, het, het);
+	}
+
+	@Benchmark
+	public int skellamCrossingPoint() {
+		return Stats.skellamCrossingPoint(depth, het);
+	}
+
+	@Benchmark
+	public double poissonProb() {
+		return Stats.poissonProb(minor, het);
+	}
+
+	@Benchmark
+	public double binomialCumulativeProb() {
+		return Stats.binomialCumulativeProb(minor / 2, minor, 0.5);
+	}
+
+	@Benchmark
+	public double binomialHalfTable() {
+		return BinomialHalfTable.cumulativeProb(minor / 2, minor);
+	}
+}
@@ -7,6 +7,7 @@ import io.compgen.cgseq.cli.genome.Mappability;
 import io.compgen.cgseq.cli.genome.MappabilityBamToCounts;
 import io.compgen.cgseq.cli.sv.Discord;
 import io.compgen.cgseq.cli.varcall.Germline;
+import io.compgen.cgseq.cli.varcall.GermlineMemo;
 import io.compgen.cgseq.cli.varcall.Somatic;
 import io.compgen.cgseq.simulation.SimuCall;
 import io.compgen.cmdline.Help;
@@ -43,6 +44,7 @@ public class CGSeq {
 		.addCommand(PileupCopyNumber.class)
 		.addCommand(Discord.class)
 		.addCommand(Germline.class)
+		.addCommand(GermlineMemo.class)
 		.addCommand(Somatic.class)
 		.addCommand(SimuCall.class)
 		.addCommand(Mappability.class)
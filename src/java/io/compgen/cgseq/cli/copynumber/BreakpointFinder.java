@@ -5,6 +5,8 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import io.compgen.cgseq.CGSeq;
+import io.compgen.cgseq.support.NativePileup;
+import io.compgen.cgseq.support.SamtoolsPileup;
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
@@ -54,7 +56,13 @@ public class BreakpointFinder extends AbstractOutputCommand {
     private int requiredFlags = 0;
 
     private String region = null;
+    private boolean useNativePileup = false;
     
+    @Option(desc="Build the pileup from the BAM files directly (no samtools, BAM files must be indexed)", name="native-pileup")
+    public void setNativePileup(boolean useNativePileup) {
+    	this.useNativePileup = useNativePileup;
+    }
+
     @Option(desc="Only calculated breakpoints for this region", name="region", charName="R")
     public void setRegion(String region) {
     	this.region = region;
@@ -121,6 +129,15 @@ public class BreakpointFinder extends AbstractOutputCommand {
 		pileup.setMinBaseQual(minBaseQual);
 		pileup.setMinMappingQual(minMapQ);
 
+		NativePileup nativePileup = null;
+		if (useNativePileup) {
+			nativePileup = new NativePileup(germlineFname, somaticFname);
+			nativePileup.setFlagFilter(filterFlags);
+			nativePileup.setFlagRequired(requiredFlags);
+			nativePileup.setMinBaseQual(minBaseQual);
+			nativePileup.setMinMappingQual(minMapQ);
+		}
+
 		SamReader bam = SamReaderFactory.makeDefault().open(new File(germlineFname));
 		final SAMFileHeader header = bam.getFileHeader();
 
@@ -164,7 +181,11 @@ public class BreakpointFinder extends AbstractOutputCommand {
         writer.write_line("## min-mapq: " + minMapQ);
         writer.write_line("## min-base-qual: " + minBaseQual);
         writer.write_line("## proper-pairs: " + properPairs);
-		writer.write_line("## pileupCommand="+StringUtils.join(" ", pileup.getCommand(regionSpan)));
+		if (nativePileup != null) {
+			writer.write_line("## pileup="+nativePileup.getDescription());
+		} else {
+			writer.write_line("## pileupCommand="+StringUtils.join(" ", pileup.getCommand(regionSpan)));
+		}
 
 		for (SAMSequenceRecord seq: header.getSequenceDictionary().getSequences()) {
 	        writer.write_line("## ref "+seq.getSequenceName()+" " + seq.getSequenceLength());
@@ -181,7 +202,7 @@ public class BreakpointFinder extends AbstractOutputCommand {
 //		final Map<BPPos,Double> stats = new HashMap<BPPos, Double>();
 
 		
-		Iterator<PileupRecord> it = ProgressUtils.getIterator(new File(germlineFname).getName()+" / " + new File(somaticFname).getName(), pileup.pileup(regionSpan), new ProgressStats(){
+		Iterator<PileupRecord> it = ProgressUtils.getIterator(new File(germlineFname).getName()+" / " + new File(somaticFname).getName(), nativePileup != null ? nativePileup.pileup(regionSpan) : SamtoolsPileup.pileup(pileup, regionSpan, minBaseQual), new ProgressStats(){
 			@Override
 			public long size() {
 				return totalGenomeSize;
@@ -4,7 +4,12 @@ import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import io.compgen.cgseq.CGSeq;
-import io.compgen.cgseq.support.MapCount;
+import io.compgen.cgseq.support.MpileupScanner;
+import io.compgen.cgseq.support.NativePileup;
+import io.compgen.cgseq.support.PackedCalls;
+import io.compgen.cgseq.support.SamtoolsPileup;
+import io.compgen.cgseq.support.SkellamDepthMemo;
+import io.compgen.cgseq.variant.AlleleSummary;
 import io.compgen.cgseq.variant.SkellamVariantCaller;
 import io.compgen.cgseq.variant.VariantResults;
 import io.compgen.cmdline.annotation.Command;
@@ -13,20 +18,17 @@ import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
 import io.compgen.common.IterUtils;
-import io.compgen.common.Pair;
 import io.compgen.common.StringLineReader;
 import io.compgen.common.StringUtils;
 import io.compgen.common.TabWriter;
 import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.pileup.BAMPileup;
-import io.compgen.ngsutils.pileup.PileupReader;
 import io.compgen.ngsutils.pileup.PileupRecord;
-import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
-import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
 import io.compgen.ngsutils.pileup.PileupRecord.PileupSampleRecord;
 import io.compgen.ngsutils.support.stats.StatUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -54,6 +56,8 @@ import java.util.Set;
 		 )
 
 public class PileupCopyNumber extends AbstractOutputCommand {
+	private static final int BLOCK_SIZE = 1024;
+
 	public class CopyNumberRecord {
 		public final String chrom;
 		public final int start;
@@ -96,7 +100,14 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 //	private String tmpDir = null;
 	
 	private boolean properPairs = false;
+	private boolean nativePileup = false;
 	private SkellamVariantCaller germlineCaller = null;
+	private String memoFilename = null;
+	private VariantResults[] germlineResults = new VariantResults[BLOCK_SIZE];
+	private AlleleSummary tumorSummary = new AlleleSummary();
+	private PackedCalls normalCalls = new PackedCalls();
+	private PackedCalls tumorCalls = new PackedCalls();
+	private int[] tumorTop = new int[2];
 
 //    @Option(desc="Write temporary files here", charName="T")
 //    public void setTmpDir(String tmpDir) {
@@ -108,6 +119,16 @@ public class PileupCopyNumber extends AbstractOutputCommand {
     	this.properPairs = properPairs;
     }
     
+    @Option(desc="Build the pileup from the BAM files directly (no samtools, BAM files must be indexed)", name="native-pileup")
+    public void setNativePileup(boolean nativePileup) {
+    	this.nativePileup = nativePileup;
+    }
+    
+    @Option(desc="Precomputed Skellam memo for the germline het calls (from germline-memo, with the default --allelefreq)", name="memo", helpValue="fname")
+    public void setMemoFilename(String memoFilename) {
+    	this.memoFilename = memoFilename;
+    }
+    
     @Option(desc="Minimum depth for MAF calculation", name="min-maf-depth", defaultValue="10")
     public void setMinMAFDepth(int minMAFDepth) {
     	this.minMAFDepth = minMAFDepth;
@@ -164,6 +185,24 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 		return Math.log(d) / Math.log(2);
 	}
 	
+	private Iterator<PileupRecord> pileup(GenomeSpan span) {
+		if (nativePileup) {
+			NativePileup pileup = new NativePileup(normalFilename, tumorFilename);
+			pileup.setFlagRequired(properPairs ? 0x2:0);
+			pileup.setMinBaseQual(minBaseQual);
+			pileup.setMinMappingQual(minMapQ);
+			return pileup.pileup(span);
+		}
+
+		BAMPileup pileup = new BAMPileup(normalFilename, tumorFilename);
+		pileup.setDisableBAQ(true);
+		pileup.setExtendedBAQ(false);
+		pileup.setFlagRequired(properPairs ? 0x2:0);
+		pileup.setMinBaseQual(minBaseQual);
+		pileup.setMinMappingQual(minMapQ);
+		return SamtoolsPileup.pileup(pileup, span, minBaseQual);
+	}
+
 	@Exec
 	public void exec() throws Exception {
 		if (pileupFilename == null && (tumorFilename == null || normalFilename == null || (region == null && bedFilename == null))) {
@@ -185,13 +224,21 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 	        writer.write_line("## normal-total: " + normalTotal);
 		}
 		
-		germlineCaller = new SkellamVariantCaller(true, minBaseQual, minMAFDepth);
+		if (memoFilename != null) {
+			// same frequencies as the default caller
+			SkellamDepthMemo memo = SkellamDepthMemo.load(memoFilename, 1.0, 0.5);
+			germlineCaller = new SkellamVariantCaller(true, minBaseQual, minMAFDepth, 0.5, 1.0, memo);
+		} else {
+			germlineCaller = new SkellamVariantCaller(true, minBaseQual, minMAFDepth);
+		}
+		// only hets are used for the MAF
+		germlineCaller.setSkipHomRef(true);
 
 		if (pileupFilename != null) {
 			writer.write("chrom", "start", "end", "ratio (log2)", "copy-number", "norm-median", "tumor-median", "maf_ave", "maf_stdev", "maf_count", "breakpoint_norm_dist", "breakpoint_tumor_dist", "breakpoint_tumor_norm_dist", "breakpoint_max_tumor_dist", "breakpoint_max_tumor_pos");
 			writer.eol();
-			PileupReader reader = new PileupReader(pileupFilename);
-			CopyNumberRecord record = calcCopyNumber(reader.iterator(), normalTotal, tumorTotal);
+			MpileupScanner reader = new MpileupScanner(pileupFilename, 0, minBaseQual);
+			CopyNumberRecord record = calcCopyNumber(reader, normalTotal, tumorTotal);
 			if (record != null) {
 				writer.write(record.chrom);
 				writer.write(record.start);
@@ -213,13 +260,6 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 			SamReader bam = SamReaderFactory.makeDefault().open(new File(tumorFilename));
 			final SAMFileHeader header = bam.getFileHeader();
 			
-			BAMPileup pileup = new BAMPileup(normalFilename, tumorFilename);
-			pileup.setDisableBAQ(true);
-			pileup.setExtendedBAQ(false);
-			pileup.setFlagRequired(properPairs ? 0x2:0);
-			pileup.setMinBaseQual(minBaseQual);
-			pileup.setMinMappingQual(minMapQ);
-
 			StringLineReader strReader = new StringLineReader(bedFilename);
 			Set<String> chromMissingError = new HashSet<String>();
 			for (String line: strReader) {
@@ -241,7 +281,7 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 					System.err.println(name);
 				}
 
-				Iterator<PileupRecord> it = pileup.pileup(new GenomeSpan(chrom, start, end));
+				Iterator<PileupRecord> it = pileup(new GenomeSpan(chrom, start, end));
 				CopyNumberRecord record = calcCopyNumber(it, normalTotal, tumorTotal);
 
 				if (record != null) {
@@ -264,15 +304,8 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 			writer.write("chrom", "start", "end", "ratio (log2)", "copy-number", "norm-median", "tumor-median", "maf_ave", "maf_stdev", "maf_count", "breakpoint_norm_dist", "breakpoint_tumor_dist", "breakpoint_tumor_norm_dist", "breakpoint_max_tumor_dist", "breakpoint_max_tumor_pos");
 			writer.eol();
 			
-			BAMPileup pileup = new BAMPileup(normalFilename, tumorFilename);
-			pileup.setDisableBAQ(true);
-			pileup.setExtendedBAQ(false);
-			pileup.setFlagRequired(properPairs ? 0x2:0);
-			pileup.setMinBaseQual(minBaseQual);
-			pileup.setMinMappingQual(minMapQ);
-
 			GenomeSpan gen = GenomeSpan.parse(region);
-			Iterator<PileupRecord> it = pileup.pileup(gen);
+			Iterator<PileupRecord> it = pileup(gen);
 
 			CopyNumberRecord record = calcCopyNumber(it, normalTotal, tumorTotal);
 
@@ -304,6 +337,7 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 		int end = -1;
 		
 		List<Double> maf = new ArrayList<Double>();
+		List<PileupRecord> sites = new ArrayList<PileupRecord>(BLOCK_SIZE);
 
 		for (PileupRecord pileup: IterUtils.wrap(it)) {
 			if (chrom == null) {
@@ -316,43 +350,64 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 			normalCounts.add(pileup.getSampleCount(0));
 			tumorCounts.add(pileup.getSampleCount(1));
 			
-			PileupSampleRecord normal = pileup.getSampleRecords(0);
-			if (normal.calls == null) {
-				continue;
+			// germline calls are made in blocks
+			sites.add(pileup);
+			if (sites.size() == BLOCK_SIZE) {
+				addMAF(sites, maf);
+				sites.clear();
 			}
+		}
+		addMAF(sites, maf);
 
-			VariantResults var = germlineCaller.calcVariant(normal.calls, ""); // we don't actually care about REF here.
-			
-			if (var == null || var.minorCall == null) {
-				continue;
-			}
+		return buildRecord(chrom, start, end, normalCounts, tumorCounts, maf, normalTotal, tumorTotal);
+	}
 
-			// if there is a minor call, then this is a het.
-			// Calculate MAF (not necessarily the B-allele frequency, will always be 0.0-0.5)
-			PileupSampleRecord tumor = pileup.getSampleRecords(1);
+	/**
+	 * Same as calcCopyNumber(Iterator...), but for mpileup text. Only the coverage is needed
+	 * for most sites, so calls are only read (into reused PackedCalls) when the normal sample
+	 * could be a het.
+	 */
+	public CopyNumberRecord calcCopyNumber(MpileupScanner scanner, int normalTotal, int tumorTotal) throws IOException {
+		List<Integer> normalCounts = new ArrayList<Integer>(); 
+		List<Integer> tumorCounts = new ArrayList<Integer>(); 
+		
+		String chrom = null;
+		int start = -1;
+		int end = -1;
+		
+		List<Double> maf = new ArrayList<Double>();
+
+		while (scanner.next()) {
+			if (chrom == null) {
+				chrom = scanner.getRef();
+				start = scanner.getPos();
+			}
 			
-			MapCount<String> counter = new MapCount<String>();
+			end = scanner.getPos();
 			
-			if (tumor != null && tumor.calls != null) {
-				for (PileupBaseCall call: tumor.calls) {
-					if (call.qual > minBaseQual || call.op != PileupBaseCallOp.Match) {
-						counter.incr(call.toString());
-					}
-				}
+			normalCounts.add(scanner.getCoverage(0));
+			tumorCounts.add(scanner.getCoverage(1));
+
+			// the rest would be skipped as hom-ref by the germline caller
+			if (germlineCaller.isHomRef(scanner.getCallCount(0), scanner.getRefCalls(0), scanner.getNonRefCalls(0))) {
+				continue;
 			}
-			
-			List<Pair<String, Integer>> sorted = counter.getSortedCounts();
 
-			if (sorted.size() < 2) {
+			scanner.getCalls(0, normalCalls);
+			VariantResults var = germlineCaller.calcVariant(normalCalls, scanner.getRefBase());
+			if (var == null || var.minorCall == null || scanner.getCoverage(1) <= 0) {
 				continue;
 			}
-			
-			int major = sorted.get(0).two;
-			int minor = sorted.get(1).two;
-			
-			maf.add(((double) minor / (major + minor)));
+
+			scanner.getCalls(1, tumorCalls);
+			tumorSummary.summarize(tumorCalls, minBaseQual);
+			addMAF(maf);
 		}
 
+		return buildRecord(chrom, start, end, normalCounts, tumorCounts, maf, normalTotal, tumorTotal);
+	}
+
+	private CopyNumberRecord buildRecord(String chrom, int start, int end, List<Integer> normalCounts, List<Integer> tumorCounts, List<Double> maf, int normalTotal, int tumorTotal) {
 		int[] norm = listToArray(normalCounts);
 		int[] tumor = listToArray(tumorCounts);
 		
@@ -372,6 +427,50 @@ public class PileupCopyNumber extends AbstractOutputCommand {
 		return null;
 	}
 	
+	/**
+	 * Call the normal sample for a block of sites, and add the tumor MAF for each germline het.
+	 */
+	private void addMAF(List<PileupRecord> sites, List<Double> maf) {
+		germlineCaller.calcVariants(sites, 0, germlineResults);
+
+		for (int i = 0; i < sites.size(); i++) {
+			VariantResults var = germlineResults[i];
+			germlineResults[i] = null;
+
+			if (var == null || var.minorCall == null) {
+				continue;
+			}
+
+			// if there is a minor call, then this is a het.
+			// Calculate MAF (not necessarily the B-allele frequency, will always be 0.0-0.5)
+			PileupSampleRecord tumor = sites.get(i).getSampleRecords(1);
+			
+			if (tumor == null || tumor.calls == null) {
+				continue;
+			}
+
+			// one pass over the tumor calls, only the top two counts are needed
+			tumorSummary.summarize(tumor.calls, minBaseQual);
+			addMAF(maf);
+		}
+	}
+
+	/**
+	 * Add the MAF for the tumor calls in tumorSummary
+	 */
+	private void addMAF(List<Double> maf) {
+		tumorSummary.topAlleles(tumorTop);
+
+		if (tumorTop[1] == -1) {
+			return;
+		}
+		
+		int major = tumorSummary.getCount(tumorTop[0]);
+		int minor = tumorSummary.getCount(tumorTop[1]);
+		
+		maf.add(((double) minor / (major + minor)));
+	}
+
 	private double calcMean(List<Double> vals) {
 		double acc = 0.0;
 		double count = 0;
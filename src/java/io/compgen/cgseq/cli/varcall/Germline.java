@@ -4,9 +4,16 @@ import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
 import io.compgen.cgseq.CGSeq;
+import io.compgen.cgseq.support.GenomeShards;
+import io.compgen.cgseq.support.NativePileup;
+import io.compgen.cgseq.support.SamtoolsPileup;
+import io.compgen.cgseq.support.SkellamDepthMemo;
+import io.compgen.cgseq.support.VcfWriter;
+import io.compgen.cgseq.variant.ReferenceBlock;
 import io.compgen.cgseq.variant.SkellamVariantCaller;
-import io.compgen.cgseq.variant.VariantCaller;
+import io.compgen.cgseq.variant.VariantField;
 import io.compgen.cgseq.variant.VariantResults;
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
@@ -14,21 +21,49 @@ import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
 import io.compgen.cmdline.impl.AbstractOutputCommand;
-import io.compgen.common.IterUtils;
 import io.compgen.common.StringUtils;
-import io.compgen.common.TabWriter;
 import io.compgen.ngsutils.annotation.GenomeSpan;
 import io.compgen.ngsutils.pileup.BAMPileup;
 import io.compgen.ngsutils.pileup.PileupRecord;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 @Command(name="germline", desc="Call variants for a germline sample (diploid)", category="variants")
 public class Germline extends AbstractOutputCommand {
+	private static final int BLOCK_SIZE = 1024;
+	// more shards than threads, so a slow (deep) shard doesn't hold up the others
+	private static final int SHARDS_PER_THREAD = 4;
+	// how many blocks the pileup reader can get ahead of the writing (per region)
+	private static final int PIPELINE_BLOCKS = 4;
+
+	/**
+	 * A block of sites and their calls
+	 */
+	private static class SiteBlock {
+		private final List<PileupRecord> sites;
+		private final VariantResults[] results;
+
+		private SiteBlock(List<PileupRecord> sites, VariantResults[] results) {
+			this.sites = sites;
+			this.results = results;
+		}
+	}
+
 	private String filename = "-";
+	private String outputName = "-";
 	private String refFilename;
 	
 	private int minBaseQual = 30;
@@ -39,6 +74,7 @@ public class Germline extends AbstractOutputCommand {
 
     private boolean disableBAQ = true;
     private boolean extendedBAQ = false;
+    private boolean nativePileup = false;
     private boolean onlyVariants = false;
     
     private double expectedAlleleFrequency = 0.5;
@@ -46,7 +82,64 @@ public class Germline extends AbstractOutputCommand {
     private int minDepth = 10;
     
     private String region = null;
+    private String memoFilename = null;
+    private boolean debug = false;
+    private boolean gvcf = false;
+    private int threads = 1;
+    private String tmpDir = null;
+    private ExecutorService callPool = null;
+    
+    @Option(desc="Output filename (.gz output is bgzip compressed and tabix indexed)", charName="o", defaultValue="-", name="output", helpValue="fname")
+    @Override
+    public void setOutputName(String outputName) {
+    	this.outputName = outputName;
+    }
+    
+    @Option(desc="Number of threads. The genome is split into shards, and each shard reads its own pileup on one thread (plus a samtools process, unless --native-pileup). The other threads call variants and write the calls. With few threads, the reading and calling overlap, so a little more than this may be busy.", name="threads", defaultValue="1")
+    public void setThreads(int threads) throws CommandArgumentException {
+    	if (threads < 1) {
+    		throw new CommandArgumentException("--threads must be at least 1");
+    	}
+    	this.threads = threads;
+    }
+    
+    @Option(desc="Write temporary files here (for --threads)", name="tmpdir", helpValue="dir")
+    public void setTmpDir(String tmpDir) {
+    	this.tmpDir = tmpDir;
+    }
+    private int[] gqBands = new int[] { 10, 20, 30, 40, 50, 60 };
+    
+    @Option(desc="Write a gVCF (hom-ref sites are merged into <NON_REF> blocks)", name="gvcf")
+    public void setGVCF(boolean gvcf) {
+    	this.gvcf = gvcf;
+    }
+    
+    @Option(desc="Lower bounds for the gVCF GQ bands (comma-separated)", name="gvcf-gq-bands", defaultValue="10,20,30,40,50,60", helpValue="val1,val2...")
+    public void setGQBands(String val) throws CommandArgumentException {
+    	String[] spl = val.split(",");
+    	gqBands = new int[spl.length];
+    	try {
+    		for (int i = 0; i < spl.length; i++) {
+    			gqBands[i] = Integer.parseInt(spl[i].trim());
+    			if (gqBands[i] <= 0 || gqBands[i] > ReferenceBlock.MAX_GQ || (i > 0 && gqBands[i] <= gqBands[i-1])) {
+    				throw new CommandArgumentException("GQ bands must be ascending values between 1 and " + ReferenceBlock.MAX_GQ + ": " + val);
+    			}
+    		}
+    	} catch (NumberFormatException e) {
+    		throw new CommandArgumentException("Invalid GQ bands: " + val);
+    	}
+    }
+    
+    @Option(desc="Add a DEBUG format field with the raw call values", name="debug")
+    public void setDebug(boolean debug) {
+    	this.debug = debug;
+    }
     
+    @Option(desc="Precomputed Skellam memo (from germline-memo, must use the same --allelefreq)", name="memo", helpValue="fname")
+    public void setMemoFilename(String memoFilename) {
+    	this.memoFilename = memoFilename;
+    }
+
     @Option(desc="Region of the genome", name="region")
     public void setRegion(String region) {
     	this.region = region;
@@ -102,6 +195,11 @@ public class Germline extends AbstractOutputCommand {
     	this.extendedBAQ = val;
     }
     
+    @Option(desc = "Build the pileup from the BAM file directly (no samtools, no BAQ, BAM and FASTA must be indexed)", name="native-pileup")
+    public void setNativePileup(boolean val) {
+    	this.nativePileup = val;
+    }
+    
     @UnnamedArg(name = "ref_fasta germline_bam", required=true)
     public void setFilename(List<String> filenames) throws CommandArgumentException {
     	if (filenames.size()!=2) {
@@ -116,6 +214,13 @@ public class Germline extends AbstractOutputCommand {
 
 	@Exec
 	public void exec() throws Exception {
+		if (gvcf && onlyVariants) {
+			throw new CommandArgumentException("--gvcf and --only-variants can't be used together");
+		}
+		if (nativePileup && (!disableBAQ || extendedBAQ)) {
+			throw new CommandArgumentException("--native-pileup doesn't support BAQ");
+		}
+
 //				##INFO=<ID=MQ,Number=1,Type=Integer,Description="Root-mean-square mapping quality of covering reads">
 //				##INFO=<ID=FQ,Number=1,Type=Float,Description="Phred probability of all samples being the same">
 //				##INFO=<ID=AF1,Number=1,Type=Float,Description="Max-likelihood estimate of the first ALT allele frequency (assuming HWE)">
@@ -147,15 +252,6 @@ public class Germline extends AbstractOutputCommand {
 //				##FORMAT=<ID=PL,Number=G,Type=Integer,Description="List of Phred-scaled genotype likelihoods">
 
 		
-		BAMPileup pileup = new BAMPileup(filename);
-		pileup.setDisableBAQ(disableBAQ);
-		pileup.setExtendedBAQ(extendedBAQ);
-		pileup.setFlagFilter(filterFlags);
-		pileup.setFlagRequired(requiredFlags);
-		pileup.setMinBaseQual(minBaseQual);
-		pileup.setMinMappingQual(minMappingQual);
-		pileup.setRefFilename(refFilename);
-
 		SamReader bam = SamReaderFactory.makeDefault().open(new File(filename));
 		SAMFileHeader header = bam.getFileHeader();
 
@@ -173,49 +269,339 @@ public class Germline extends AbstractOutputCommand {
 		}
 
 		
-		TabWriter writer = new TabWriter(out);
-		writer.write_line("##fileformat=VCFv4.1");
-		writer.write_line("##cgseqVersion="+CGSeq.getVersion());
-		writer.write_line("##cgseqCommand="+CGSeq.getArgs());
-		writer.write_line("##reference=file://"+new File(refFilename).getCanonicalPath());
-		writer.write_line("##pileupCommand="+StringUtils.join(" ", pileup.getCommand(regionSpan)));
+		VcfWriter writer = new VcfWriter(outputName, header.getSequenceDictionary());
+		writer.writeLine("##fileformat=VCFv4.1");
+		writer.writeLine("##cgseqVersion="+CGSeq.getVersion());
+		writer.writeLine("##cgseqCommand="+CGSeq.getArgs());
+		writer.writeLine("##reference=file://"+new File(refFilename).getCanonicalPath());
+		if (nativePileup) {
+			writer.writeLine("##pileup="+newNativePileup().getDescription());
+		} else {
+			writer.writeLine("##pileupCommand="+StringUtils.join(" ", newPileup().getCommand(regionSpan)));
+		}
 
 		
 		for (SAMSequenceRecord rec: header.getSequenceDictionary().getSequences()) {
-			writer.write_line("##contig=<ID="+rec.getSequenceName()+",length="+rec.getSequenceLength()+">");
+			writer.writeLine("##contig=<ID="+rec.getSequenceName()+",length="+rec.getSequenceLength()+">");
 		}
 		bam.close();
 
-		VariantCaller caller = new SkellamVariantCaller(backgroundCorrect, minBaseQual, minDepth, expectedAlleleFrequency, 1.0);
+		SkellamVariantCaller caller;
+		if (memoFilename != null) {
+			SkellamDepthMemo memo = SkellamDepthMemo.load(memoFilename, 1.0, expectedAlleleFrequency);
+			caller = new SkellamVariantCaller(backgroundCorrect, minBaseQual, minDepth, expectedAlleleFrequency, 1.0, memo);
+		} else {
+			caller = new SkellamVariantCaller(backgroundCorrect, minBaseQual, minDepth, expectedAlleleFrequency, 1.0);
+		}
+		caller.setDebug(debug);
 
-		for (String k: caller.getInfoFields()) {
-			writer.write_line("##INFO=<ID="+k+","+caller.getInfoFieldDescription(k)+">");
+		for (VariantField k: caller.getInfoFields()) {
+			writer.writeLine("##INFO=<ID="+k+","+caller.getInfoFieldDescription(k)+">");
 		}
-		for (String k: caller.getFormatFields()) {
-			writer.write_line("##FORMAT=<ID="+k+","+caller.getFormatFieldDescription(k)+">");
+		for (VariantField k: caller.getFormatFields()) {
+			writer.writeLine("##FORMAT=<ID="+k+","+caller.getFormatFieldDescription(k)+">");
+		}
+		writer.writeLine("##FORMAT=<ID=GT,Integer=R,Type=Integer,Description=\"Genotype call for each allele\">");
+
+		if (gvcf) {
+			ReferenceBlock block = new ReferenceBlock(gqBands);
+			writer.writeLine("##ALT=<ID=NON_REF,Description=\"Represents any possible alternative allele at this location\">");
+			writer.writeLine("##INFO=<ID=END,Number=1,Type=Integer,Description=\"Stop position of the interval\">");
+			writer.writeLine("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality (minimum for the block)\">");
+			writer.writeLine("##FORMAT=<ID=MIN_DP,Number=1,Type=Integer,Description=\"Minimum depth for the block\">");
+			for (int i = 0; i < block.getBandCount(); i++) {
+				writer.writeLine("##GVCFBlock"+block.getBandMin(i)+"-"+block.getBandMax(i)+"=minGQ="+block.getBandMin(i)+"(inclusive),maxGQ="+block.getBandMax(i)+(i == block.getBandCount() - 1 ? "(inclusive)" : "(exclusive)"));
+			}
 		}
-		writer.write_line("##FORMAT=<ID=GT,Integer=R,Type=Integer,Description=\"Genotype call for each allele\">");
 		
-		writer.write("#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT", filename);
+		for (String col: new String[] { "#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT", filename }) {
+			writer.write(col);
+		}
 		writer.eol();
 
 		
-		for (PileupRecord record: IterUtils.wrap(pileup.pileup(regionSpan))) {
-			if (record.getSampleRecords(0).coverage < minDepth) {
-				continue;
+		caller.setSkipHomRef(onlyVariants);
+
+		// split the thread budget between shards (each reading its own pileup, plus a samtools
+		// process unless it's native) and callers (which also write the calls)
+		int perShard = nativePileup ? 1 : 2;
+		int shardThreads = Math.max(1, threads / (perShard + 1));
+		callPool = Executors.newFixedThreadPool(Math.max(1, threads - shardThreads * perShard));
+		try {
+			if (shardThreads > 1) {
+				List<GenomeSpan> spans = new ArrayList<GenomeSpan>();
+				if (regionSpan != null) {
+					spans.add(regionSpan);
+				} else {
+					for (SAMSequenceRecord rec: header.getSequenceDictionary().getSequences()) {
+						spans.add(new GenomeSpan(rec.getSequenceName(), 0, rec.getSequenceLength()));
+					}
+				}
+				callParallel(writer, caller, GenomeShards.split(spans, shardThreads * SHARDS_PER_THREAD), shardThreads);
+			} else {
+				callRegion(writer, caller, regionSpan);
 			}
-			
-			// Germline should be the first record
-			VariantResults varResult = caller.calcVariant(record.getSampleRecords(0).calls, record.refBase);
+		} finally {
+			callPool.shutdownNow();
+			callPool = null;
+		}
+
+		writer.close();
+	}
+
+	private BAMPileup newPileup() {
+		BAMPileup pileup = new BAMPileup(filename);
+		pileup.setDisableBAQ(disableBAQ);
+		pileup.setExtendedBAQ(extendedBAQ);
+		pileup.setFlagFilter(filterFlags);
+		pileup.setFlagRequired(requiredFlags);
+		pileup.setMinBaseQual(minBaseQual);
+		pileup.setMinMappingQual(minMappingQual);
+		pileup.setRefFilename(refFilename);
+		return pileup;
+	}
+
+	private NativePileup newNativePileup() {
+		NativePileup pileup = new NativePileup(filename);
+		pileup.setFlagFilter(filterFlags);
+		pileup.setFlagRequired(requiredFlags);
+		pileup.setMinBaseQual(minBaseQual);
+		pileup.setMinMappingQual(minMappingQual);
+		pileup.setRefFilename(refFilename);
+		return pileup;
+	}
+
+	private CloseableIterator<PileupRecord> pileup(GenomeSpan span) {
+		if (nativePileup) {
+			return newNativePileup().pileup(span);
+		}
+		return SamtoolsPileup.pileup(newPileup(), span, minBaseQual);
+	}
+
+	/**
+	 * Call each shard on its own pileup (the caller is shared), writing to a temp file per
+	 * shard. The temp files are copied to the output in shard order as they finish, so the
+	 * output is in the same order as a single-threaded run.
+	 */
+	private void callParallel(VcfWriter writer, final SkellamVariantCaller caller, List<List<GenomeSpan>> shards, int shardThreads) throws Exception {
+		final File dir = tmpDir == null ? null : new File(tmpDir);
+		ExecutorService pool = Executors.newFixedThreadPool(shardThreads);
+		List<Future<File>> futures = new ArrayList<Future<File>>();
+
+		try {
+			for (final List<GenomeSpan> shard: shards) {
+				futures.add(pool.submit(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						File tmp = File.createTempFile(".cgseq-germline", ".vcf", dir);
+						tmp.deleteOnExit();
+						VcfWriter shardWriter = new VcfWriter(tmp.getAbsolutePath(), null);
+						for (GenomeSpan span: shard) {
+							callRegion(shardWriter, caller, span);
+						}
+						shardWriter.close();
+						return tmp;
+					}
+				}));
+			}
+
+			for (Future<File> future: futures) {
+				File tmp = getResult(future);
+
+				InputStream in = new FileInputStream(tmp);
+				writer.writeLines(in);
+				in.close();
+				tmp.delete();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Call and write one region (null for the whole BAM file) as a pipeline. This thread
+	 * reads the pileup and splits it into blocks. The blocks are called on the shared caller
+	 * pool, and written (in order) by whichever caller finishes the next block. The reader
+	 * can only get PIPELINE_BLOCKS ahead of the writing.
+	 */
+	private void callRegion(VcfWriter writer, SkellamVariantCaller caller, GenomeSpan span) throws Exception {
+		RegionWriter out = new RegionWriter(writer, caller);
+		CloseableIterator<PileupRecord> it = pileup(span);
+		try {
+			List<PileupRecord> sites = new ArrayList<PileupRecord>(BLOCK_SIZE);
+			while (it.hasNext()) {
+				PileupRecord record = it.next();
+				if (record.getSampleRecords(0).coverage < minDepth) {
+					continue;
+				}
+
+				sites.add(record);
+				if (sites.size() == BLOCK_SIZE) {
+					out.submit(sites);
+					sites = new ArrayList<PileupRecord>(BLOCK_SIZE);
+				}
+			}
+			if (!sites.isEmpty()) {
+				out.submit(sites);
+			}
+			out.finish();
+		} finally {
+			// stops samtools if we didn't get to the end
+			it.close();
+			out.cancel();
+		}
+	}
+
+	/**
+	 * Calls the blocks for one region on the caller pool and writes them in order. Blocks
+	 * are written by the caller threads: when a block is done, the thread that called it
+	 * writes it and any later blocks that are already done (unless another thread is already
+	 * writing).
+	 */
+	private class RegionWriter {
+		private final VcfWriter writer;
+		private final SkellamVariantCaller caller;
+		private final ReferenceBlock block = gvcf ? new ReferenceBlock(gqBands) : null;
+
+		// a permit for each block that can be in flight (released once the block is written)
+		private final Semaphore permits = new Semaphore(PIPELINE_BLOCKS);
+		private final SiteBlock[] done = new SiteBlock[PIPELINE_BLOCKS];
+		private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		private int submitted = 0;
+		private int written = 0;
+		private boolean writing = false;
+		private volatile boolean cancelled = false;
+
+		private RegionWriter(VcfWriter writer, SkellamVariantCaller caller) {
+			this.writer = writer;
+			this.caller = caller;
+		}
+
+		private void submit(final List<PileupRecord> sites) throws Exception {
+			permits.acquire();
+			checkError();
+
+			final int seq = submitted++;
+			callPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						VariantResults[] results = new VariantResults[sites.size()];
+						// Germline should be the first record (clearly hom-ref sites are skipped here for --only-variants)
+						caller.calcVariants(sites, 0, results);
+						write(seq, new SiteBlock(sites, results));
+					} catch (Exception e) {
+						fail(e);
+					} catch (Error e) {
+						fail(new RuntimeException(e));
+						throw e;
+					}
+				}
+			});
+		}
+
+		private void write(int seq, SiteBlock siteBlock) throws IOException {
+			synchronized (this) {
+				done[seq % PIPELINE_BLOCKS] = siteBlock;
+				if (writing) {
+					return;
+				}
+				writing = true;
+			}
+
+			while (true) {
+				SiteBlock next;
+				synchronized (this) {
+					next = done[written % PIPELINE_BLOCKS];
+					if (next == null || cancelled) {
+						writing = false;
+						return;
+					}
+					done[written % PIPELINE_BLOCKS] = null;
+					written++;
+				}
+				writeResults(writer, caller, next.sites, next.results, block);
+				permits.release();
+			}
+		}
+
+		private void fail(Exception e) {
+			error.compareAndSet(null, e);
+			cancelled = true;
+			// wakes up the reader
+			permits.release(PIPELINE_BLOCKS);
+		}
+
+		private void checkError() throws Exception {
+			if (error.get() != null) {
+				throw error.get();
+			}
+		}
+
+		/**
+		 * Wait for every block to be written, and then write the last ref block
+		 */
+		private void finish() throws Exception {
+			permits.acquire(PIPELINE_BLOCKS);
+			checkError();
+			if (block != null) {
+				writeBlock(writer, block);
+			}
+		}
+
+		/**
+		 * Stop writing blocks (after an error)
+		 */
+		private void cancel() {
+			cancelled = true;
+		}
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the results for a block of sites (or add them to the current ref block)
+	 */
+	private void writeResults(VcfWriter writer, SkellamVariantCaller caller, List<PileupRecord> sites, VariantResults[] results, ReferenceBlock block) throws IOException {
+		for (int i = 0; i < sites.size(); i++) {
+			PileupRecord record = sites.get(i);
+			VariantResults varResult = results[i];
+			results[i] = null;
 			
 			if (varResult == null) {
 				continue;
 			}
 
-			if (onlyVariants && varResult.majorCall.equals(record.refBase) && varResult.minorCall == null) {
+			boolean homRef = varResult.majorCall.equals(record.refBase) && varResult.minorCall == null;
+
+			if (onlyVariants && homRef) {
 				// only display variants ** and ** the call is homozygous for the ref. call
 				continue;				
 			}
+
+			if (block != null) {
+				if (homRef) {
+					// merge into the current ref block, or start a new one
+					int gq = ReferenceBlock.toGQ(varResult.getQual());
+					if (block.canExtend(record.ref, record.pos, gq)) {
+						block.extend(record.pos, varResult.rawDepth, gq);
+					} else {
+						writeBlock(writer, block);
+						block.start(record.ref, record.pos, record.refBase, varResult.rawDepth, gq);
+					}
+					continue;
+				}
+				writeBlock(writer, block);
+			}
 			
 			// Assume the following possible genotypes: REF:REF, REF:ALT, ALT:ALT (order: AA,AB,BB) - for a HET not including the REF base, the order is AA,AB,BB,AC,BC,CC, (ref:alt1:alt2 ?? )
 
@@ -237,64 +623,104 @@ public class Germline extends AbstractOutputCommand {
 			writer.write(record.refBase);
 			
 			if (altCall1 != null) {
-				if (altCall2 == null) {
-					writer.write(altCall1);
-				} else {
-					writer.write(altCall1+","+altCall2);
+				writer.write(altCall1);
+				if (altCall2 != null) {
+					writer.append(',');
+					writer.append(altCall2);
 				}
+				if (block != null) {
+					// gVCF records always list <NON_REF>
+					writer.append(",<NON_REF>");
+				}
+			} else if (block != null) {
+				writer.write("<NON_REF>");
 			} else {
 				writer.write(".");
 			}
 
 			// qual is prob we are wrong (for either way...)
-			writer.write(toPhred(varResult.getQual()));
+			writePhred(writer, varResult.getQual());
 			
 			writer.write("."); // FILTER
 			
 			
-			// info
-			List<String> info = new ArrayList<String>();
-			for (String k: caller.getInfoFields()) {
-				if (varResult.containsInfo(k)) {
-					if (varResult.getInfo(k) != null) {
-						info.add(k+"="+varResult.getInfo(k));
-					} else {
-						info.add(k);
+			// info and format values are only formatted here, once we know the line is written
+			writer.write("");
+			boolean first = true;
+			for (VariantField k: caller.getInfoFields()) {
+				if (varResult.contains(k)) {
+					if (!first) {
+						writer.append(';');
+					}
+					first = false;
+					writer.append(k.name());
+					if (k.type != VariantField.Type.FLAG) {
+						writer.append('=');
+						varResult.appendValue(writer, k);
 					}
 				}
 			}
-			writer.write(StringUtils.join(";", info));
-			
 			
 			// format
-			List<String> format = new ArrayList<String>();
-			List<String> formatVals = new ArrayList<String>();
+			writer.write("");
+			first = true;
+			for (VariantField k: caller.getFormatFields()) {
+				if (varResult.contains(k)) {
+					if (!first) {
+						writer.append(':');
+					}
+					first = false;
+					writer.append(k.name());
+				}
+			}
 
-			for (String k: caller.getFormatFields()) {
-				if (varResult.containsFormat(k)) {
-					format.add(k);
-					formatVals.add(varResult.getFormat(k));
+			writer.write("");
+			first = true;
+			for (VariantField k: caller.getFormatFields()) {
+				if (varResult.contains(k)) {
+					if (!first) {
+						writer.append(':');
+					}
+					first = false;
+					varResult.appendValue(writer, k);
 				}
 			}
-			writer.write(StringUtils.join(":", format));
-			writer.write(StringUtils.join(":", formatVals));
 			writer.eol();
 		}
-		writer.close();
 	}
 
-	private String toPhred(Double qual) {
-		return toPhred(qual, -1);
+	/**
+	 * Write the current ref block (if there is one) as a gVCF <NON_REF> record, and clear it.
+	 */
+	private void writeBlock(VcfWriter writer, ReferenceBlock block) throws IOException {
+		if (block.isEmpty()) {
+			return;
+		}
+		writer.write(block.getChrom());
+		writer.write(block.getStart()+1);
+		writer.write(".");
+		writer.write(block.getRefBase());
+		writer.write("<NON_REF>");
+		writer.write(".");
+		writer.write(".");
+		writer.write("END=");
+		writer.append(block.getEnd()+1);
+		writer.write("GT:DP:GQ:MIN_DP");
+		writer.write("0/0:");
+		writer.append(block.getMeanDepth());
+		writer.append(':');
+		writer.append(block.getMinGQ());
+		writer.append(':');
+		writer.append(block.getMinDepth());
+		writer.eol();
+		block.clear();
 	}
-	
-	private String toPhred(Double qual, int max) {
+
+	private void writePhred(VcfWriter writer, Double qual) {
 		if (qual == null) {
-			return ".";
-		}
-		int val = (int) (-10 * Math.log10(qual));
-		if (max != -1 && val > max) {
-			val = max;
+			writer.write(".");
+			return;
 		}
-		return ""+ val;
+		writer.write((int) (-10 * Math.log10(qual)));
 	}
 }
@@ -0,0 +1,41 @@
+package io.compgen.cgseq.cli.varcall;
+
+import io.compgen.cgseq.support.SkellamDepthMemo;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.impl.AbstractCommand;
+
+
+@Command(name="germline-memo", desc="Precompute Skellam probabilities for germline calling (use with germline --memo)", category="variants")
+public class GermlineMemo extends AbstractCommand {
+	private String filename = null;
+	private double expectedAlleleFrequency = 0.5;
+	private int maxDepth = SkellamDepthMemo.DEFAULT_MAX_DEPTH;
+
+    @Option(desc="Estimated allele frequency", name="allelefreq", defaultValue="0.5")
+    public void setEstAlleleFreq(double estAlleleFreq) {
+    	this.expectedAlleleFrequency = estAlleleFreq;
+    }
+
+    @Option(desc="Maximum depth to precompute (deeper sites are calculated as needed)", name="max-depth", defaultValue="1000")
+    public void setMaxDepth(int maxDepth) {
+    	this.maxDepth = maxDepth;
+    }
+
+    @UnnamedArg(name = "FILE", required=true)
+    public void setFilename(String filename) {
+    	this.filename = filename;
+    }
+
+	@Exec
+	public void exec() throws Exception {
+		if (maxDepth < 1) {
+			throw new CommandArgumentException("--max-depth must be at least 1");
+		}
+		// same hom/het frequencies as the germline command
+		SkellamDepthMemo.write(filename, 1.0, expectedAlleleFrequency, maxDepth);
+	}
+}
@@ -90,6 +90,42 @@ public class BesselI implements UnivariateFunction {
 
     private static final double CONST = 1.585;
 
+    /** Running products of ratios are moved into log-space when they drop below this */
+    private static final double RESCALE = 1.0e-280;
+
+    /**
+     * Orders at or above this use the uniform (Debye) asymptotic expansion. With
+     * terms up to u10, the truncation error is < 1e-15 (relative) for any x, so the
+     * result is within a few ulps of ln I (about 4e-15 * max(1, |ln I|)).
+     */
+    private static final double DEBYE_ORDER = 30;
+
+    /**
+     * Below DEBYE_ORDER, arguments at or above this use the large argument (Hankel)
+     * asymptotic expansion, which is accurate to working precision here.
+     */
+    private static final double HANKEL_X = 300;
+
+    /** ln(Double.MAX_VALUE) */
+    private static final double LOG_MAX = 709.782712893384;
+
+    /** Polynomial coefficients (in p^2) for the Debye terms u1..u10, u_k(p) = p^k * poly(p^2) / denom */
+    private static final double[][] DEBYE_COEF = new double[][] {
+    	{ 3, -5 },
+    	{ 81, -462, 385 },
+    	{ 30375, -369603, 765765, -425425 },
+    	{ 4465125, -94121676, 349922430, -446185740, 185910725 },
+    	{ 1519035525.0, -49286948607.0, 284499769554.0, -614135872350.0, 566098157625.0, -188699385875.0 },
+    	{ 2757049477875.0, -127577298354750.0, 1050760774457901.0, -3369032068261860.0, 5104696716244125.0, -3685299006138750.0, 1023694168371875.0 },
+    	{ 199689155040375.0, -12493049053044375.0, 138799253740521843.0, -613221795981706275.0, 1347119637570231525.0, -1570320948552481125.0, 931766432052080625.0, -221849150488590625.0 },
+    	{ 134790179652253125.0, -10960565081605263000.0, 157768535329832893644.0, -914113758588905038248.0, 2711772922412520971550.0, -4513690624987320777000.0, 4272845805510421639500.0, -2152114239059719935000.0, 448357133137441653125.0 },
+    	{ 6427469716717690265625.0, -659033454841709672064375.0, 11921080954211358275362500.0, -87432034049652400520788332.0, 334380732677827878090447630.0, -741743213039573443221773250.0, 992115946599792610768672500.0, -790370708270219620781737500.0, 345821892003106984030190625.0, -64041091111686478524109375.0 },
+    	{ 9745329584487361980740625.0, -1230031256571145165088463750.0, 27299183373230345667273718125.0, -246750339886026017414509498824.0, 1177120360439828012193658602930.0, -3327704366990695147540934069220.0, 5876803711285273203043452095250.0, -6564241639632418015173104205000.0, 4513386761946134740461797128125.0, -1745632061522350031610173343750.0, 290938676920391671935028890625.0 }
+    };
+
+    private static final double[] DEBYE_DENOM = new double[] { 24, 1152, 414720, 39813120, 6688604160.0, 4815794995200.0,
+    	115579079884800.0, 22191183337881600.0, 263631258054033408000.0, 88580102706155225088000.0 };
+
     /** Order of the function computed when {@link #value(double)} is used */
     private final double order;
 
@@ -121,28 +157,267 @@ public class BesselI implements UnivariateFunction {
      * @throws ConvergenceException if the algorithm fails to converge
 	 */
 	public static double value(double order, double x, boolean expScale) {
+		return value(order, x, expScale, new double[workspaceSize(order)]);
+	}
+
+	/**
+	 * Returns modified first Bessel function \(I_{order}(x)\), using a caller-owned
+	 * workspace. This doesn't allocate anything, so it can be used in tight loops.
+	 * 
+	 * @param order
+	 * @param x
+	 * @param expScale
+	 * @param work workspace, must be at least {@link #workspaceSize(double)} long
+     * @return Value of the Bessel function of the modified first kind, \(I_{order}(x)\)
+     * @throws MathIllegalArgumentException if {@code x} is too large relative to {@code order}
+     * @throws ConvergenceException if the algorithm fails to converge
+	 */
+	public static double value(double order, double x, boolean expScale, double[] work) {
 		final int n = (int) order;
 		final double alpha = order - n;
 		final int nb = n + 1;
 		
-		final BesselIResult res = riBesl(x, alpha, nb, expScale);
-		if (res == null) {
-			return -1;
+		if (x > 0.0 && useAsymptotic(order, x)) {
+			final double logval = logAsymptotic(order, x) - (expScale ? x : 0.0);
+			if (logval > LOG_MAX) {
+	            throw new MathIllegalArgumentException(LocalizedFormats.BESSEL_FUNCTION_BAD_ARGUMENT,order, x);
+			}
+			final double val = FastMath.exp(logval);
+			return val < ENMTEN ? 0.0 : val; // underflow (same as riBesl)
 		}
+
+		final int ncalc = riBesl(x, alpha, nb, expScale, work);
 		
-		// res.vals is 1-based, so we'll keep that here.
-//		System.err.println(res.nVals+"/"+StringUtils.join(";", res.vals));
-        if (res.nVals >= nb) {
-            return res.vals[n+1];
-        } else if (res.nVals < 0) {
+		// work is 1-based, so we'll keep that here.
+        if (ncalc >= nb) {
+            return work[n+1];
+        } else if (ncalc < 0) {
             throw new MathIllegalArgumentException(LocalizedFormats.BESSEL_FUNCTION_BAD_ARGUMENT,order, x);
-        } else if (FastMath.abs(res.vals[res.nVals]) < 1e-100) {
-            return res.vals[n+1]; // underflow; return value (will be zero)
+        } else if (FastMath.abs(work[ncalc]) < 1e-100) {
+            return work[n+1]; // underflow; return value (will be zero)
         }
         throw new ConvergenceException(LocalizedFormats.BESSEL_FUNCTION_FAILED_CONVERGENCE, order, x);
 	}
-	
-	
+
+	/**
+	 * @param order
+	 * @return the size of the workspace needed to calculate \(I_{order}(x)\)
+	 */
+	public static int workspaceSize(double order) {
+		return (int) order + 2;
+	}
+
+	/**
+	 * Returns the natural log of the modified first Bessel function, \(\ln I_{order}(x)\)
+	 *
+	 * Large orders and arguments use asymptotic expansions (see {@link #useAsymptotic(double, double)}).
+	 * Otherwise, this uses the exponentially scaled values from riBesl (e^-x * I(x)), so large
+	 * arguments don't overflow. For integer orders where the scaled sequence underflows
+	 * (high order relative to x) or fails, the value is calculated in
+	 * log-space instead (see {@link #logMiller(int, double)}).
+	 *
+	 * @param order
+	 * @param x
+	 * @return \(\ln I_{order}(x)\) (-Infinity if the value is exactly zero)
+     * @throws MathIllegalArgumentException if {@code x} is too large for a non-integer {@code order}
+     * @throws ConvergenceException if the algorithm fails to converge for a non-integer {@code order}
+	 */
+	public static double logValue(double order, double x) {
+		return logValue(order, x, new double[workspaceSize(order)]);
+	}
+
+	/**
+	 * Workspace version of {@link #logValue(double, double)}; doesn't allocate anything.
+	 * 
+	 * @param order
+	 * @param x
+	 * @param work workspace, must be at least {@link #workspaceSize(double)} long
+	 * @return \(\ln I_{order}(x)\)
+	 */
+	public static double logValue(double order, double x, double[] work) {
+		final int n = (int) order;
+		final double alpha = order - n;
+		final int nb = n + 1;
+
+		if (x == 0.0) {
+			return order == 0.0 ? 0.0 : Double.NEGATIVE_INFINITY;
+		}
+
+		if (useAsymptotic(order, x)) {
+			return logAsymptotic(order, x);
+		}
+
+		final int ncalc = riBesl(x, alpha, nb, true, work);
+
+		// work is 1-based, work[i] = e^-x * I(i-1+alpha)
+		if (ncalc >= nb && work[nb] > 0.0 && work[nb] < Double.POSITIVE_INFINITY) {
+			return FastMath.log(work[nb]) + x;
+		}
+
+		if (alpha == 0.0) {
+			return logMiller(n, x);
+		} else if (ncalc < 0) {
+            throw new MathIllegalArgumentException(LocalizedFormats.BESSEL_FUNCTION_BAD_ARGUMENT,order, x);
+		}
+        throw new ConvergenceException(LocalizedFormats.BESSEL_FUNCTION_FAILED_CONVERGENCE, order, x);
+	}
+
+	/**
+	 * Large orders and arguments are calculated with an asymptotic expansion in O(1)
+	 * time. The recurrences need at least max(order, x) iterations (and riBesl fails
+	 * outright for large x). 
+	 */
+	private static boolean useAsymptotic(final double order, final double x) {
+		return order >= DEBYE_ORDER || x >= HANKEL_X;
+	}
+
+	private static double logAsymptotic(final double order, final double x) {
+		if (order >= DEBYE_ORDER) {
+			return logDebye(order, x);
+		}
+		return logHankel(order, x);
+	}
+
+	/**
+	 * Uniform asymptotic (Debye) expansion for large orders, valid for any x > 0.
+	 * 
+	 * I(nu, nu*z) ~ e^(nu*eta) / (sqrt(2*pi*nu) * (1+z^2)^(1/4)) * sum(u_k(p) / nu^k)
+	 * 
+	 * where eta = sqrt(1+z^2) + ln(z / (1+sqrt(1+z^2))) and p = 1/sqrt(1+z^2).
+	 * (Abramowitz and Stegun 9.7.7)
+	 * 
+	 * @param nu
+	 * @param x
+	 * @return \(\ln I_{nu}(x)\)
+	 */
+	private static double logDebye(final double nu, final double x) {
+		final double z = x / nu;
+		final double sq = FastMath.sqrt(1 + z * z);
+		final double p = 1 / sq;
+		final double p2 = p * p;
+		final double eta = sq + FastMath.log(z / (1 + sq));
+
+		double sum = 1.0;
+		double pk = 1.0;
+		for (int k = 0; k < DEBYE_COEF.length; k++) {
+			pk = pk * p / nu;
+			final double[] coef = DEBYE_COEF[k];
+			double poly = coef[coef.length - 1];
+			for (int i = coef.length - 2; i >= 0; i--) {
+				poly = poly * p2 + coef[i];
+			}
+			sum += pk * poly / DEBYE_DENOM[k];
+		}
+		
+		return nu * eta - 0.5 * FastMath.log(2 * FastMath.PI * nu) - 0.5 * FastMath.log(sq) + FastMath.log(sum);
+	}
+
+	/**
+	 * Large argument (Hankel) expansion, for x much larger than the order.
+	 * 
+	 * I(nu, x) ~ e^x / sqrt(2*pi*x) * (1 - (mu-1)/8x + (mu-1)(mu-9)/(2!(8x)^2) - ...), mu = 4*nu^2
+	 * 
+	 * (Abramowitz and Stegun 9.7.1)
+	 * 
+	 * @param nu
+	 * @param x
+	 * @return \(\ln I_{nu}(x)\)
+	 */
+	private static double logHankel(final double nu, final double x) {
+		final double mu = 4 * nu * nu;
+		double term = 1.0;
+		double sum = 1.0;
+		for (int k = 1; k < 100; k++) {
+			term = -term * (mu - (2 * k - 1) * (2 * k - 1)) / (k * 8 * x);
+			sum += term;
+			if (FastMath.abs(term) < 1.0e-17 * FastMath.abs(sum)) {
+				break;
+			}
+		}
+		return x - 0.5 * FastMath.log(2 * FastMath.PI * x) + FastMath.log(sum);
+	}
+
+	/**
+	 * Log-space Miller algorithm for integer orders.
+	 * 
+	 * The ratios r(j) = I(j)/I(j-1) are found with a backward recurrence, 
+	 * r(j) = 1 / (2j/x + r(j+1)), started well above both n and x. I(0) is then
+	 * normalized using e^x = I(0) + 2 * sum(I(k)), which in terms of the ratios is
+	 * e^-x * I(0) = 1 / (1 + 2 * (r1 + r1*r2 + r1*r2*r3 + ...)). Nothing here can
+	 * under- or overflow, so this works for any order and argument.
+	 *  
+	 * @param n
+	 * @param x
+	 * @return \(\ln I_{n}(x)\)
+	 */
+	private static double logMiller(final int n, final double x) {
+		final int start = millerStart(n, x);
+
+		double r = 0.0;
+		double sum = 0.0;
+		double prod = 1.0;
+		double acc = 0.0;
+
+		for (int j = start; j >= 1; j--) {
+			r = 1.0 / (2 * j / x + r);
+			sum = r * (1.0 + sum);
+			if (j <= n) {
+				prod = prod * r;
+				if (prod < RESCALE) {
+					acc += FastMath.log(prod);
+					prod = 1.0;
+				}
+			}
+		}
+		return x - FastMath.log1p(2 * sum) + acc + FastMath.log(prod);
+	}
+
+	/**
+	 * Calculates the whole sequence \(\ln I_{0}(x) .. \ln I_{nb-1}(x)\) from a single
+	 * backward recurrence (the same log-space Miller algorithm as {@link #logValue(double, double)}
+	 * uses for large orders). This doesn't allocate anything and can't under- or overflow.
+	 * 
+	 * @param x
+	 * @param nb number of orders to calculate
+	 * @param out output, out[j] = \(\ln I_{j}(x)\); must be at least nb long
+	 */
+	public static void logSequence(final double x, final int nb, final double[] out) {
+		if (x == 0.0) {
+			out[0] = 0.0;
+			for (int j = 1; j < nb; j++) {
+				out[j] = Double.NEGATIVE_INFINITY;
+			}
+			return;
+		}
+
+		final int start = millerStart(nb - 1, x);
+
+		double r = 0.0;
+		double sum = 0.0;
+
+		for (int j = start; j >= 1; j--) {
+			r = 1.0 / (2 * j / x + r);
+			sum = r * (1.0 + sum);
+			if (j < nb) {
+				out[j] = r;
+			}
+		}
+
+		out[0] = x - FastMath.log1p(2 * sum);
+		for (int j = 1; j < nb; j++) {
+			out[j] = out[j-1] + FastMath.log(out[j]);
+		}
+	}
+
+	/**
+	 * Starting order for the backward recurrence, so that the ratios for orders up to n
+	 * (and the normalization sum) are accurate to working precision.
+	 */
+	private static int millerStart(final int n, final double x) {
+		return FastMath.max(n, (int) x) + 20 + (int) (10 * FastMath.sqrt(x));
+	}
+
+
 	public static class BesselIResult {
 		private final double[] vals;
 		private final int nVals;
@@ -164,13 +439,29 @@ public class BesselI implements UnivariateFunction {
 	
 	public static BesselIResult riBesl(final double x, final double alpha, final int nb, final boolean ize) {
 		final double[] b = new double[nb+1]; // fortran is 1-based, so we'll keep that convention here.
-		
+		final int ncalc = riBesl(x, alpha, nb, ize, b);
+		return new BesselIResult(b, ncalc);
+	}
+
+	/**
+	 * Workspace version of riBesl. The values I(alpha)..I(nb-1+alpha) are written to
+	 * b[1]..b[nb] (b[0] is unused, to keep the Fortran 1-based convention). {@code b}
+	 * must be at least nb+1 long, and is only written to if the arguments are valid. 
+	 * 
+	 * @param x
+	 * @param alpha fractional part of the order (0 <= alpha < 1)
+	 * @param nb number of orders to calculate
+	 * @param ize if true, exponentially scaled values are calculated
+	 * @param b workspace (output)
+	 * @return ncalc (see the Fortran code: nb if all values were calculated, < 0 if the arguments are invalid)
+	 */
+	public static int riBesl(final double x, final double alpha, final int nb, final boolean ize, final double[] b) {
 		int ncalc = 0;
 		
 		// fail fast
 		if (nb <= 0 || x < 0 || alpha < 0 || alpha >= 1 || (!ize && x > EXPARG) || (ize && x > XLARGE)) {
 			ncalc = Math.min(nb, 0)-1;
-			return new BesselIResult(MathArrays.copyOf(b, b.length), ncalc);
+			return ncalc;
 		}
 
 		ncalc = nb;
@@ -476,7 +767,7 @@ public class BesselI implements UnivariateFunction {
 				}
 			}
 		} 
-		return new BesselIResult(MathArrays.copyOf(b, b.length), ncalc);
+		return ncalc;
 
 	}
 
@@ -0,0 +1,75 @@
+package io.compgen.cgseq.support;
+
+/**
+ * Lower-tail binomial CDF values for p=0.5, P(X <= k; n, 0.5). These are used for
+ * strand-bias tests, where n is an allele count, so the domain is small and can be
+ * fully enumerated.
+ *
+ * The values are stored in a triangular array (only k <= n/2 is kept for each n, the
+ * rest come from symmetry). The table is shared across all callers and grows as
+ * needed. Values for n > MAX_N are calculated directly.
+ */
+public class BinomialHalfTable {
+	public static final int MAX_N = 2048;
+
+	// row n starts at offset(n) and holds k=0..n/2
+	private static volatile double[] table = new double[0];
+	private static volatile int maxN = -1;
+
+	private BinomialHalfTable() {}
+
+	/**
+	 * @param k - observed successes
+	 * @param n - number of trials
+	 * @return - P(X <= k) for Binomial(n, 0.5)
+	 */
+	public static double cumulativeProb(int k, int n) {
+		if (k < 0) {
+			return 0.0;
+		} else if (k >= n) {
+			return 1.0;
+		} else if (n > MAX_N) {
+			return Stats.binomialCumulativeProb(k, n, 0.5);
+		}
+
+		if (n > maxN) {
+			grow(n);
+		}
+
+		final double[] t = table;
+		if (k <= n / 2) {
+			return t[offset(n) + k];
+		}
+		// symmetric: P(X <= k) = 1 - P(X <= n-k-1)
+		return 1.0 - t[offset(n) + (n - k - 1)];
+	}
+
+	private static int offset(int n) {
+		// sum of (m/2 + 1) for m=0..n-1
+		return n + ((n - 1) * (n - 1)) / 4;
+	}
+
+	private static synchronized void grow(int n) {
+		if (n <= maxN) {
+			// another thread already grew the table
+			return;
+		}
+
+		final int newMax = Math.min(Math.max(n, maxN * 2), MAX_N);
+		final double[] newTable = new double[offset(newMax + 1)];
+		System.arraycopy(table, 0, newTable, 0, table.length);
+
+		for (int m = maxN + 1; m <= newMax; m++) {
+			final int off = offset(m);
+			double acc = 0.0;
+			for (int k = 0; k <= m / 2; k++) {
+				acc += Stats.binomialProb(k, m, 0.5);
+				newTable[off + k] = acc;
+			}
+		}
+
+		// publish the table before the new size, so readers never see a short table
+		table = newTable;
+		maxN = newMax;
+	}
+}
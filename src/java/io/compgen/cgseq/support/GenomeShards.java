@@ -0,0 +1,60 @@
+package io.compgen.cgseq.support;
+
+import io.compgen.ngsutils.annotation.GenomeSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a list of regions (e.g. every contig in a sequence dictionary) into shards of
+ * about the same total length, so they can be processed in parallel.
+ *
+ * Regions are kept in order, so concatenating the output for each shard gives the same
+ * order as processing the regions one after another. Large regions are split across
+ * shards, and small regions (unplaced contigs, etc) are grouped into one shard.
+ */
+public class GenomeShards {
+	private GenomeShards() {}
+
+	/**
+	 * @param spans - regions to split (0-based, half-open)
+	 * @param count - target number of shards
+	 * @return the shards, each a list of regions
+	 */
+	public static List<List<GenomeSpan>> split(List<GenomeSpan> spans, int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Shard count must be at least 1: " + count);
+		}
+
+		long total = 0;
+		for (GenomeSpan span: spans) {
+			total += span.end - span.start;
+		}
+		final long target = Math.max(1, (total + count - 1) / count);
+
+		List<List<GenomeSpan>> shards = new ArrayList<List<GenomeSpan>>();
+		List<GenomeSpan> shard = new ArrayList<GenomeSpan>();
+		long shardSize = 0;
+
+		for (GenomeSpan span: spans) {
+			int start = span.start;
+			while (start < span.end) {
+				int len = (int) Math.min(span.end - start, target - shardSize);
+				shard.add(new GenomeSpan(span.ref, start, start + len));
+				shardSize += len;
+				start += len;
+
+				if (shardSize >= target) {
+					shards.add(shard);
+					shard = new ArrayList<GenomeSpan>();
+					shardSize = 0;
+				}
+			}
+		}
+
+		if (!shard.isEmpty()) {
+			shards.add(shard);
+		}
+		return shards;
+	}
+}
@@ -0,0 +1,131 @@
+package io.compgen.cgseq.support;
+
+import org.apache.commons.math3.special.Erf;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Mann-Whitney U test for small, non-negative integer values (like read positions).
+ *
+ * Values are counted into two histograms, so ranking is a single pass over the value
+ * range (O(n + L)) with no sorting or boxing. Ties get average ranks, and the p-value
+ * uses the same normal approximation as commons-math MannWhitneyUTest, so results match
+ * {@code new MannWhitneyUTest().mannWhitneyUTest(x, y)}.
+ *
+ * Instances are reusable (call {@link #clear()} between tests), but not thread-safe.
+ */
+public class IntMannWhitney {
+	private static final double SQRT2 = FastMath.sqrt(2.0);
+
+	private int[] countsX;
+	private int[] countsY;
+	private int nX = 0;
+	private int nY = 0;
+	private int maxVal = -1;
+
+	public IntMannWhitney() {
+		this(256);
+	}
+
+	/**
+	 * @param initialRange - expected maximum value (the histograms grow if needed)
+	 */
+	public IntMannWhitney(int initialRange) {
+		countsX = new int[initialRange + 1];
+		countsY = new int[initialRange + 1];
+	}
+
+	public void clear() {
+		for (int i = 0; i <= maxVal; i++) {
+			countsX[i] = 0;
+			countsY[i] = 0;
+		}
+		nX = 0;
+		nY = 0;
+		maxVal = -1;
+	}
+
+	public void addX(int val) {
+		ensureRange(val);
+		countsX[val]++;
+		nX++;
+	}
+
+	public void addY(int val) {
+		ensureRange(val);
+		countsY[val]++;
+		nY++;
+	}
+
+	public int getCountX() {
+		return nX;
+	}
+
+	public int getCountY() {
+		return nY;
+	}
+
+	/**
+	 * @return the larger of the two U statistics (same as MannWhitneyUTest.mannWhitneyU)
+	 */
+	public double u() {
+		double rank = 0;
+		double sumRankX = 0;
+		for (int i = 0; i <= maxVal; i++) {
+			final int count = countsX[i] + countsY[i];
+			if (count > 0) {
+				// tied values get the average of ranks rank+1..rank+count
+				sumRankX += countsX[i] * (rank + (count + 1) / 2.0);
+				rank += count;
+			}
+		}
+
+		final double u1 = sumRankX - ((long) nX * (nX + 1)) / 2;
+		final double u2 = (long) nX * nY - u1;
+		return FastMath.max(u1, u2);
+	}
+
+	/**
+	 * @return two-sided p-value (normal approximation), or NaN if either sample is empty
+	 */
+	public double pValue() {
+		if (nX == 0 || nY == 0) {
+			return Double.NaN;
+		}
+
+		final double uMax = u();
+		final long n1n2prod = (long) nX * nY;
+		final double uMin = n1n2prod - uMax;
+
+		final double eu = n1n2prod / 2.0;
+		final double varU = n1n2prod * (nX + nY + 1) / 12.0;
+		final double z = (uMin - eu) / FastMath.sqrt(varU);
+
+		return 2 * normalCumulativeProb(z);
+	}
+
+	private static double normalCumulativeProb(double z) {
+		// same as commons-math NormalDistribution(0, 1)
+		if (FastMath.abs(z) > 40) {
+			return z < 0 ? 0.0 : 1.0;
+		}
+		return 0.5 * Erf.erfc(-z / SQRT2);
+	}
+
+	private void ensureRange(int val) {
+		if (val < 0) {
+			throw new IllegalArgumentException("Values must be non-negative: " + val);
+		}
+		if (val >= countsX.length) {
+			int size = FastMath.max(val + 1, countsX.length * 2);
+			int[] x = new int[size];
+			int[] y = new int[size];
+			System.arraycopy(countsX, 0, x, 0, countsX.length);
+			System.arraycopy(countsY, 0, y, 0, countsY.length);
+			countsX = x;
+			countsY = y;
+		}
+		if (val > maxVal) {
+			maxVal = val;
+		}
+	}
+}
@@ -38,4 +38,36 @@ public class MapCount<T extends Comparable<T>> {
 		
 		return out;
 	}
+
+	/**
+	 * Find the highest counts in one pass, without building or sorting a list. Ties are
+	 * kept in the same order as getSortedCounts().
+	 * 
+	 * @param keys - filled with the top keys (k = keys.length)
+	 * @param counts - filled with the counts for those keys (at least as long as keys)
+	 * @return the number of entries filled (less than k if there are fewer keys)
+	 */
+	public int getTopCounts(T[] keys, int[] counts) {
+		int found = 0;
+		for (Map.Entry<T, Integer> entry: counter.entrySet()) {
+			final int count = entry.getValue();
+			int i = found;
+			while (i > 0 && counts[i-1] < count) {
+				i--;
+			}
+			if (i >= keys.length) {
+				continue;
+			}
+			if (found < keys.length) {
+				found++;
+			}
+			for (int j = found - 1; j > i; j--) {
+				keys[j] = keys[j-1];
+				counts[j] = counts[j-1];
+			}
+			keys[i] = entry.getKey();
+			counts[i] = count;
+		}
+		return found;
+	}
 }
@@ -0,0 +1,474 @@
+package io.compgen.cgseq.support;
+
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads samtools mpileup text straight from bytes, one line at a time.
+ *
+ * PileupReader splits every line into Strings and makes an object for every base call.
+ * Here the line is scanned in place (the file is read in large chunks), and each sample
+ * only gets a few counters: the coverage, the number of calls PileupRecord.parse() would
+ * keep, and the number of reference and non-reference calls that pass the variant caller's
+ * quality filter. When the counters aren't enough, getCalls(sample, PackedCalls) fills in the
+ * calls for a sample (the same calls as PileupRecord.parse()).
+ *
+ * Like PileupReader, "-" reads from stdin and ".gz" files are decompressed.
+ */
+public class MpileupScanner implements Closeable {
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private static final String[] BASES = new String[256];
+	private static final String[] UPPER = new String[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			BASES[i] = String.valueOf((char) i);
+			UPPER[i] = String.valueOf(Character.toUpperCase((char) i));
+		}
+	}
+
+	private final ReadableByteChannel channel;
+	private final int minBaseQual;
+	private final int minCallQual;
+
+	private byte[] data = new byte[CHUNK_SIZE];
+	private int dataStart = 0;
+	private int dataEnd = 0;
+	private boolean eof = false;
+
+	private int lineStart = 0;
+	private int lineEnd = 0;
+
+	private String ref = null;
+	private byte[] refBytes = new byte[0];
+	private int pos = -1;
+	private byte refBase = 'N';
+
+	private int sampleCount = 0;
+	private int[] coverage = new int[2];
+	private int[] calls = new int[2];
+	private int[] refCalls = new int[2];
+	private int[] nonRefCalls = new int[2];
+	private int[] readPos = new int[256];
+
+	/**
+	 * @param filename - mpileup file ("-" for stdin)
+	 * @param minBaseQual - same as the PileupReader min base quality (base calls need a higher quality to be kept)
+	 * @param minCallQual - quality filter used by the variant caller (for counting non-reference calls)
+	 */
+	public MpileupScanner(String filename, int minBaseQual, int minCallQual) throws IOException {
+		if (filename.equals("-")) {
+			this.channel = Channels.newChannel(System.in);
+		} else if (filename.endsWith(".gz")) {
+			this.channel = Channels.newChannel(new GZIPInputStream(new FileInputStream(filename), 64 * 1024));
+		} else {
+			this.channel = new FileInputStream(filename).getChannel();
+		}
+		this.minBaseQual = minBaseQual;
+		this.minCallQual = minCallQual;
+	}
+
+	/**
+	 * Moves to the next site.
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		while (nextLine()) {
+			if (lineEnd > lineStart && data[lineStart] != '#') {
+				scanLine();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getRef() {
+		if (ref == null) {
+			ref = new String(refBytes, StandardCharsets.US_ASCII);
+		}
+		return ref;
+	}
+
+	/**
+	 * @return the position (0-based, same as PileupRecord)
+	 */
+	public int getPos() {
+		return pos;
+	}
+
+	/**
+	 * @return the reference base (upper case)
+	 */
+	public String getRefBase() {
+		return BASES[refBase & 0xFF];
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * @return the coverage (same as PileupRecord.getSampleCount(), -1 for a missing sample)
+	 */
+	public int getCoverage(int sample) {
+		if (sample < 0 || sample >= sampleCount) {
+			return -1;
+		}
+		return coverage[sample];
+	}
+
+	/**
+	 * @return the number of calls PileupRecord.parse() would keep for this sample
+	 */
+	public int getCallCount(int sample) {
+		if (sample < 0 || sample >= sampleCount) {
+			return 0;
+		}
+		return calls[sample];
+	}
+
+	/**
+	 * @return the number of reference calls above the caller quality filter
+	 */
+	public int getRefCalls(int sample) {
+		if (sample < 0 || sample >= sampleCount) {
+			return 0;
+		}
+		return refCalls[sample];
+	}
+
+	/**
+	 * @return the number of non-reference calls above the caller quality filter (indels always count)
+	 */
+	public int getNonRefCalls(int sample) {
+		if (sample < 0 || sample >= sampleCount) {
+			return 0;
+		}
+		return nonRefCalls[sample];
+	}
+
+	/**
+	 * Fills in the calls for one sample (the same calls as PileupRecord.parse()), without
+	 * making a PileupBaseCall for each read.
+	 *
+	 * @param out - cleared before adding the calls (left empty for a missing sample, or no coverage)
+	 */
+	public void getCalls(int sample, PackedCalls out) {
+		out.clear();
+		if (sample < 0 || sample >= sampleCount || coverage[sample] == 0) {
+			return;
+		}
+
+		final byte[] arr = data;
+		final int end = lineEnd;
+
+		int i = lineStart;
+		for (int col = 0; col < 3 + sample * 4; col++) {
+			i = nextTab(arr, i, end) + 1;
+		}
+		int basesStart = nextTab(arr, i, end) + 1;
+		int basesEnd = nextTab(arr, basesStart, end);
+		int qualStart = basesEnd + 1;
+		int readPosStart = nextTab(arr, qualStart, end) + 1;
+		int readPosEnd = nextTab(arr, readPosStart, end);
+
+		parseReadPos(arr, readPosStart, readPosEnd);
+
+		int qualIdx = 0;
+		for (int j = basesStart; j < basesEnd; j++) {
+			byte base = arr[j];
+			switch (base) {
+			case '^':
+				j++;
+				break;
+			case '$':
+				break;
+			case '*':
+			case '>':
+			case '<':
+				qualIdx++;
+				break;
+			case '+':
+			case '-':
+				int len = 0;
+				j++;
+				while (j < basesEnd && arr[j] >= '0' && arr[j] <= '9') {
+					len = len * 10 + (arr[j] - '0');
+					j++;
+				}
+				boolean plus = true;
+				for (int k = j; k < j + len; k++) {
+					if (arr[k] >= 'a' && arr[k] <= 'z') {
+						plus = false;
+						break;
+					}
+				}
+				String indel = len == 1 ? UPPER[arr[j] & 0xFF] : new String(arr, j, len, StandardCharsets.US_ASCII).toUpperCase();
+				out.addIndel(base == '+' ? PileupBaseCallOp.Ins : PileupBaseCallOp.Del, indel, plus, readPos[qualIdx - 1]);
+				j += len - 1;
+				break;
+			default:
+				int qual = arr[qualStart + qualIdx] - 33;
+				if (qual > minBaseQual) {
+					if (base == '.') {
+						out.addMatch(refBase, qual, true, readPos[qualIdx]);
+					} else if (base == ',') {
+						out.addMatch(refBase, qual, false, readPos[qualIdx]);
+					} else {
+						out.addMatch(upper(base), qual, !(base >= 'a' && base <= 'z'), readPos[qualIdx]);
+					}
+				}
+				qualIdx++;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Parse the read positions column into readPos
+	 */
+	private void parseReadPos(byte[] arr, int start, int end) {
+		int readPosCount = 0;
+		int val = 0;
+		for (int j = start; j < end; j++) {
+			if (arr[j] == ',') {
+				readPos = addReadPos(readPos, readPosCount++, val);
+				val = 0;
+			} else {
+				val = val * 10 + (arr[j] - '0');
+			}
+		}
+		readPos = addReadPos(readPos, readPosCount, val);
+	}
+
+	private static int[] addReadPos(int[] readPos, int idx, int val) {
+		if (idx == readPos.length) {
+			readPos = Arrays.copyOf(readPos, readPos.length * 2);
+		}
+		readPos[idx] = val;
+		return readPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Finds the next line in the buffer (reading more when needed). Sets lineStart/lineEnd,
+	 * without the newline.
+	 */
+	private boolean nextLine() throws IOException {
+		int scan = dataStart;
+		while (true) {
+			for (int i = scan; i < dataEnd; i++) {
+				if (data[i] == '\n') {
+					setLine(dataStart, i);
+					dataStart = i + 1;
+					return true;
+				}
+			}
+
+			if (eof) {
+				if (dataStart < dataEnd) {
+					// last line, without a newline
+					setLine(dataStart, dataEnd);
+					dataStart = dataEnd;
+					return true;
+				}
+				return false;
+			}
+
+			// move the partial line to the front (or grow the buffer for a very long line)
+			int partial = dataEnd - dataStart;
+			if (dataStart > 0) {
+				System.arraycopy(data, dataStart, data, 0, partial);
+			} else if (partial == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			dataStart = 0;
+			dataEnd = partial;
+			scan = partial;
+
+			int read = channel.read(ByteBuffer.wrap(data, dataEnd, data.length - dataEnd));
+			if (read < 0) {
+				eof = true;
+			} else {
+				dataEnd += read;
+			}
+		}
+	}
+
+	private void setLine(int start, int end) {
+		if (end > start && data[end - 1] == '\r') {
+			end--;
+		}
+		lineStart = start;
+		lineEnd = end;
+	}
+
+	private void scanLine() {
+		final byte[] arr = data;
+		final int end = lineEnd;
+
+		// ref
+		int i = lineStart;
+		int colEnd = nextTab(arr, i, end);
+		if (!sameRef(arr, i, colEnd)) {
+			refBytes = new byte[colEnd - i];
+			System.arraycopy(arr, i, refBytes, 0, refBytes.length);
+			ref = null;
+		}
+
+		// pos
+		i = colEnd + 1;
+		colEnd = nextTab(arr, i, end);
+		pos = parseInt(arr, i, colEnd) - 1;
+
+		// ref base
+		i = colEnd + 1;
+		colEnd = nextTab(arr, i, end);
+		refBase = i < colEnd ? upper(arr[i]) : (byte) 'N';
+
+		sampleCount = 0;
+		i = colEnd + 1;
+		while (i < end) {
+			if (sampleCount == coverage.length) {
+				coverage = grow(coverage);
+				calls = grow(calls);
+				refCalls = grow(refCalls);
+				nonRefCalls = grow(nonRefCalls);
+			}
+
+			colEnd = nextTab(arr, i, end);
+			int cov = parseInt(arr, i, colEnd);
+
+			int basesStart = colEnd + 1;
+			int basesEnd = nextTab(arr, basesStart, end);
+			int qualStart = basesEnd + 1;
+			int qualEnd = nextTab(arr, qualStart, end);
+			// read positions (not needed for the counts)
+			int nextSample = nextTab(arr, qualEnd + 1, end) + 1;
+
+			coverage[sampleCount] = cov;
+			calls[sampleCount] = 0;
+			refCalls[sampleCount] = 0;
+			nonRefCalls[sampleCount] = 0;
+			if (cov > 0) {
+				scanBases(arr, sampleCount, basesStart, basesEnd, qualStart);
+			}
+
+			sampleCount++;
+			i = nextSample;
+		}
+	}
+
+	/**
+	 * Same rules as PileupRecord.parse() and SkellamVariantCaller.isHomRef()
+	 */
+	private void scanBases(byte[] arr, int sample, int start, int end, int qualStart) {
+		int qualIdx = qualStart;
+		int sampleCalls = 0;
+		int sampleRef = 0;
+		int sampleNonRef = 0;
+
+		for (int j = start; j < end; j++) {
+			byte base = arr[j];
+			switch (base) {
+			case '^':
+				// skip the mapping quality
+				j++;
+				break;
+			case '$':
+				break;
+			case '*':
+			case '>':
+			case '<':
+				qualIdx++;
+				break;
+			case '+':
+			case '-':
+				int len = 0;
+				j++;
+				while (j < end && arr[j] >= '0' && arr[j] <= '9') {
+					len = len * 10 + (arr[j] - '0');
+					j++;
+				}
+				j += len - 1;
+				// indels are always kept
+				sampleCalls++;
+				sampleNonRef++;
+				break;
+			default:
+				int qual = arr[qualIdx++] - 33;
+				if (qual > minBaseQual) {
+					sampleCalls++;
+					if (qual > minCallQual) {
+						if (base == '.' || base == ',' || upper(base) == refBase) {
+							sampleRef++;
+						} else {
+							sampleNonRef++;
+						}
+					}
+				}
+				break;
+			}
+		}
+
+		calls[sample] = sampleCalls;
+		refCalls[sample] = sampleRef;
+		nonRefCalls[sample] = sampleNonRef;
+	}
+
+	private boolean sameRef(byte[] arr, int start, int end) {
+		if (end - start != refBytes.length) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (arr[i] != refBytes[i - start]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int nextTab(byte[] arr, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (arr[i] == '\t') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static int parseInt(byte[] arr, int start, int end) {
+		int val = 0;
+		for (int i = start; i < end; i++) {
+			if (arr[i] < '0' || arr[i] > '9') {
+				throw new NumberFormatException("Bad number: " + new String(arr, start, end - start, StandardCharsets.US_ASCII));
+			}
+			val = val * 10 + (arr[i] - '0');
+		}
+		return val;
+	}
+
+	private static byte upper(byte b) {
+		return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+	}
+
+	private static int[] grow(int[] arr) {
+		int[] out = new int[arr.length * 2];
+		System.arraycopy(arr, 0, out, 0, arr.length);
+		return out;
+	}
+}
@@ -0,0 +1,586 @@
+package io.compgen.cgseq.support;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.pileup.PileupRecord;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Builds pileup records directly from indexed BAM files, without running samtools mpileup.
+ *
+ * The records match what SamtoolsPileup returns for the same options (with BAQ disabled):
+ * unmapped, secondary, QC-failed and duplicate reads are skipped unless other filter flags
+ * are given, reads from anomalous pairs (paired, but not properly paired) are skipped, and
+ * where the two reads of a pair overlap, each base is only counted once (the quality of one
+ * mate is moved to the other, the same way samtools does). Base calls are kept if their
+ * quality is above the minimum base quality, and indels are always kept.
+ *
+ * BAQ and the samtools max-depth limit aren't supported.
+ *
+ * Each call to pileup() opens its own readers, so separate regions can be piled up on
+ * separate threads.
+ */
+public class NativePileup {
+	/** samtools mpileup default: UNMAP, SECONDARY, QCFAIL, DUP */
+	public static final int DEFAULT_FILTER_FLAGS = 0x704;
+
+	private static final int REF_WINDOW = 64 * 1024;
+
+	private static final String[] UPPER = new String[256];
+	private static final String[] LOWER = new String[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			UPPER[i] = String.valueOf(Character.toUpperCase((char) i));
+			LOWER[i] = String.valueOf(Character.toLowerCase((char) i));
+		}
+	}
+
+	private final String[] filenames;
+	private String refFilename = null;
+	private int minMappingQual = -1;
+	private int minBaseQual = 0;
+	private int filterFlags = 0;
+	private int requiredFlags = 0;
+
+	public NativePileup(String... filenames) {
+		this.filenames = filenames;
+	}
+
+	public void setRefFilename(String refFilename) {
+		this.refFilename = refFilename;
+	}
+
+	public void setMinMappingQual(int minMappingQual) {
+		this.minMappingQual = minMappingQual;
+	}
+
+	public void setMinBaseQual(int minBaseQual) {
+		this.minBaseQual = minBaseQual;
+	}
+
+	/**
+	 * Reads with any of these flags are skipped (0 for the samtools default)
+	 */
+	public void setFlagFilter(int filterFlags) {
+		this.filterFlags = filterFlags;
+	}
+
+	/**
+	 * Reads need at least one of these flags (0 for none)
+	 */
+	public void setFlagRequired(int requiredFlags) {
+		this.requiredFlags = requiredFlags;
+	}
+
+	public String getDescription() {
+		return "native minMapQ=" + minMappingQual + " minBaseQual=" + minBaseQual + " filterFlags=" + (filterFlags > 0 ? filterFlags : DEFAULT_FILTER_FLAGS) + " requiredFlags=" + requiredFlags + (refFilename == null ? "" : " ref=" + refFilename);
+	}
+
+	/**
+	 * @param region - region to pileup (null for every reference in the first BAM file)
+	 */
+	public CloseableIterator<PileupRecord> pileup(GenomeSpan region) {
+		try {
+			return new PileupIterator(region);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static boolean isAlignment(CigarOperator op) {
+		return op == CigarOperator.M || op == CigarOperator.EQ || op == CigarOperator.X;
+	}
+
+	/**
+	 * One aligned read, with a cursor over its CIGAR that only moves forward.
+	 */
+	private static class Read {
+		private final SAMRecord rec;
+		private final int start;
+		private final int end;
+		private final CigarOperator[] ops;
+		private final int[] lens;
+		private final byte[] bases;
+		private final byte[] quals;
+		private final boolean plusStrand;
+
+		private int elem = 0;
+		private int elemRefStart;
+		private int elemReadStart = 0;
+
+		private Read(SAMRecord rec) {
+			this.rec = rec;
+			this.start = rec.getAlignmentStart() - 1;
+			this.end = rec.getAlignmentEnd() - 1;
+			this.elemRefStart = start;
+
+			List<CigarElement> elements = rec.getCigar().getCigarElements();
+			this.ops = new CigarOperator[elements.size()];
+			this.lens = new int[elements.size()];
+			for (int i = 0; i < elements.size(); i++) {
+				ops[i] = elements.get(i).getOperator();
+				lens[i] = elements.get(i).getLength();
+			}
+
+			this.bases = rec.getReadBases();
+			this.quals = rec.getBaseQualities();
+			this.plusStrand = !rec.getReadNegativeStrandFlag();
+		}
+
+		/**
+		 * Moves the cursor to the CIGAR element covering pos (pos must be within the read).
+		 */
+		private void seek(int pos) {
+			while (true) {
+				CigarOperator op = ops[elem];
+				if (op.consumesReferenceBases() && pos < elemRefStart + lens[elem]) {
+					return;
+				}
+				if (op.consumesReferenceBases()) {
+					elemRefStart += lens[elem];
+				}
+				if (op.consumesReadBases()) {
+					elemReadStart += lens[elem];
+				}
+				elem++;
+			}
+		}
+
+		private byte base(int qpos) {
+			return qpos < bases.length ? bases[qpos] : (byte) 'N';
+		}
+
+		/**
+		 * Qualities are unsigned (merged overlapping mates can be up to 200)
+		 */
+		private int qual(int qpos) {
+			return qpos < quals.length ? quals[qpos] & 0xFF : 0;
+		}
+
+		/**
+		 * @return the read position for each reference position from..to (-1 if not aligned)
+		 */
+		private int[] queryPositions(int from, int to) {
+			int[] out = new int[to - from + 1];
+			Arrays.fill(out, -1);
+
+			int refPos = start;
+			int qpos = 0;
+			for (int i = 0; i < ops.length && refPos <= to; i++) {
+				if (isAlignment(ops[i])) {
+					for (int j = 0; j < lens[i]; j++) {
+						if (refPos + j >= from && refPos + j <= to) {
+							out[refPos + j - from] = qpos + j;
+						}
+					}
+				}
+				if (ops[i].consumesReferenceBases()) {
+					refPos += lens[i];
+				}
+				if (ops[i].consumesReadBases()) {
+					qpos += lens[i];
+				}
+			}
+			return out;
+		}
+	}
+
+	private class PileupIterator implements CloseableIterator<PileupRecord> {
+		private final SamReader[] readers;
+		private final IndexedFastaSequenceFile refFasta;
+		private final List<GenomeSpan> spans = new ArrayList<GenomeSpan>();
+		private final int filterMask;
+
+		private int spanIdx = 0;
+		private GenomeSpan span = null;
+		private int pos;
+		private SAMRecordIterator[] its = null;
+		private SAMRecord[] nextReads;
+		private List<List<Read>> active;
+		private List<Map<String, Read>> mates;
+
+		private boolean hasRef = false;
+		private byte[] refBases = new byte[0];
+		private int refStart = 0;
+		private int refLength = 0;
+
+		private PileupRecord next = null;
+		private boolean done = false;
+
+		private PileupIterator(GenomeSpan region) throws IOException {
+			this.filterMask = filterFlags > 0 ? filterFlags : DEFAULT_FILTER_FLAGS;
+
+			SamReaderFactory factory = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT);
+			readers = new SamReader[filenames.length];
+			for (int i = 0; i < filenames.length; i++) {
+				readers[i] = factory.open(new File(filenames[i]));
+				if (!readers[i].hasIndex()) {
+					close();
+					throw new IOException("BAM file must be indexed: " + filenames[i]);
+				}
+			}
+
+			refFasta = refFilename == null ? null : new IndexedFastaSequenceFile(new File(refFilename));
+
+			if (region != null) {
+				spans.add(region);
+			} else {
+				for (SAMSequenceRecord seq: readers[0].getFileHeader().getSequenceDictionary().getSequences()) {
+					spans.add(new GenomeSpan(seq.getSequenceName(), 0, seq.getSequenceLength()));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				next = computeNext();
+				if (next == null) {
+					done = true;
+					close();
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public PileupRecord next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			PileupRecord ret = next;
+			next = null;
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private PileupRecord computeNext() {
+			while (true) {
+				if (its == null) {
+					if (spanIdx >= spans.size()) {
+						return null;
+					}
+					openSpan(spans.get(spanIdx++));
+					continue;
+				}
+
+				if (pos >= span.end) {
+					closeSpan();
+					continue;
+				}
+
+				boolean covered = false;
+				for (int i = 0; i < readers.length; i++) {
+					removeReads(i, pos);
+					addReads(i, pos);
+					if (!active.get(i).isEmpty()) {
+						covered = true;
+					}
+				}
+
+				if (!covered) {
+					// skip ahead to the next read
+					int nextStart = Integer.MAX_VALUE;
+					for (SAMRecord read: nextReads) {
+						if (read != null) {
+							nextStart = Math.min(nextStart, read.getAlignmentStart() - 1);
+						}
+					}
+					if (nextStart == Integer.MAX_VALUE) {
+						closeSpan();
+					} else {
+						pos = nextStart;
+					}
+					continue;
+				}
+
+				return buildRecord(pos++);
+			}
+		}
+
+		private void openSpan(GenomeSpan span) {
+			this.span = span;
+			this.pos = span.start;
+
+			its = new SAMRecordIterator[readers.length];
+			nextReads = new SAMRecord[readers.length];
+			active = new ArrayList<List<Read>>(readers.length);
+			mates = new ArrayList<Map<String, Read>>(readers.length);
+
+			for (int i = 0; i < readers.length; i++) {
+				if (readers[i].getFileHeader().getSequenceIndex(span.ref) > -1) {
+					its[i] = readers[i].query(span.ref, span.start + 1, span.end, false);
+				}
+				nextReads[i] = nextRead(i);
+				active.add(new ArrayList<Read>());
+				mates.add(new HashMap<String, Read>());
+			}
+
+			hasRef = false;
+			refBases = new byte[0];
+			refStart = 0;
+			refLength = 0;
+			if (refFasta != null) {
+				SAMSequenceRecord seq = readers[0].getFileHeader().getSequence(span.ref);
+				if (seq != null) {
+					hasRef = true;
+					refLength = seq.getSequenceLength();
+				}
+			}
+		}
+
+		private void closeSpan() {
+			if (its != null) {
+				for (SAMRecordIterator it: its) {
+					if (it != null) {
+						it.close();
+					}
+				}
+			}
+			its = null;
+		}
+
+		/**
+		 * Close the BAM files (this is done automatically at the end)
+		 */
+		@Override
+		public void close() {
+			done = true;
+			next = null;
+			closeSpan();
+			for (int i = 0; i < readers.length; i++) {
+				if (readers[i] != null) {
+					try {
+						readers[i].close();
+					} catch (IOException e) {
+					}
+					readers[i] = null;
+				}
+			}
+		}
+
+		private SAMRecord nextRead(int sample) {
+			if (its[sample] == null) {
+				return null;
+			}
+			while (its[sample].hasNext()) {
+				SAMRecord rec = its[sample].next();
+				if (accept(rec)) {
+					return rec;
+				}
+			}
+			return null;
+		}
+
+		private boolean accept(SAMRecord rec) {
+			int flags = rec.getFlags();
+			if (rec.getReadUnmappedFlag() || rec.getAlignmentEnd() < rec.getAlignmentStart()) {
+				return false;
+			}
+			if ((flags & filterMask) != 0) {
+				return false;
+			}
+			if (requiredFlags > 0 && (flags & requiredFlags) == 0) {
+				return false;
+			}
+			if (rec.getMappingQuality() < minMappingQual) {
+				return false;
+			}
+			// samtools skips anomalous read pairs by default
+			if (rec.getReadPairedFlag() && !rec.getProperPairFlag()) {
+				return false;
+			}
+			return true;
+		}
+
+		private void removeReads(int sample, int pos) {
+			List<Read> reads = active.get(sample);
+			int j = 0;
+			for (int i = 0; i < reads.size(); i++) {
+				Read read = reads.get(i);
+				if (read.end >= pos) {
+					reads.set(j++, read);
+				} else {
+					Map<String, Read> pending = mates.get(sample);
+					if (pending.get(read.rec.getReadName()) == read) {
+						pending.remove(read.rec.getReadName());
+					}
+				}
+			}
+			while (reads.size() > j) {
+				reads.remove(reads.size() - 1);
+			}
+		}
+
+		private void addReads(int sample, int pos) {
+			while (nextReads[sample] != null && nextReads[sample].getAlignmentStart() - 1 <= pos) {
+				SAMRecord rec = nextReads[sample];
+				nextReads[sample] = nextRead(sample);
+
+				if (rec.getAlignmentEnd() - 1 < pos) {
+					continue;
+				}
+
+				Read read = new Read(rec);
+				if (rec.getReadPairedFlag() && !rec.getMateUnmappedFlag() && rec.getReferenceIndex().equals(rec.getMateReferenceIndex()) && Math.abs(rec.getInferredInsertSize()) < 2 * read.bases.length) {
+					Map<String, Read> pending = mates.get(sample);
+					Read mate = pending.remove(rec.getReadName());
+					if (mate != null) {
+						tweakOverlap(mate, read);
+					} else if (rec.getMateAlignmentStart() >= rec.getAlignmentStart()) {
+						pending.put(rec.getReadName(), read);
+					}
+				}
+				active.get(sample).add(read);
+			}
+		}
+
+		/**
+		 * Where two mates overlap, only count the base once (same as samtools). If the bases
+		 * match, the first mate gets both qualities (max 200). If they don't, the base with
+		 * the higher quality is kept at 80% of its quality. The other mate's quality is 0.
+		 */
+		private void tweakOverlap(Read a, Read b) {
+			int from = Math.max(a.start, b.start);
+			int to = Math.min(a.end, b.end);
+			if (from > to || a.quals.length == 0 || b.quals.length == 0) {
+				return;
+			}
+
+			int[] aPos = a.queryPositions(from, to);
+			int[] bPos = b.queryPositions(from, to);
+			for (int i = 0; i < aPos.length; i++) {
+				int qa = aPos[i];
+				int qb = bPos[i];
+				if (qa < 0 || qb < 0 || qa >= a.quals.length || qb >= b.quals.length) {
+					continue;
+				}
+
+				final int aQual = a.qual(qa);
+				final int bQual = b.qual(qb);
+				if (Character.toUpperCase(a.base(qa)) == Character.toUpperCase(b.base(qb))) {
+					a.quals[qa] = (byte) Math.min(aQual + bQual, 200);
+					b.quals[qb] = 0;
+				} else if (aQual >= bQual) {
+					a.quals[qa] = (byte) (0.8 * aQual);
+					b.quals[qb] = 0;
+				} else {
+					b.quals[qb] = (byte) (0.8 * bQual);
+					a.quals[qa] = 0;
+				}
+			}
+		}
+
+		private byte refBase(int pos) {
+			if (!hasRef || pos >= refLength) {
+				return 'N';
+			}
+			if (pos < refStart || pos >= refStart + refBases.length) {
+				refStart = pos;
+				int end = Math.min(refLength, pos + REF_WINDOW);
+				try {
+					refBases = refFasta.getSubsequenceAt(span.ref, pos + 1, end).getBases();
+				} catch (SAMException e) {
+					// not in the FASTA file
+					hasRef = false;
+					return 'N';
+				}
+				if (refBases.length == 0) {
+					hasRef = false;
+					return 'N';
+				}
+			}
+			return refBases[pos - refStart];
+		}
+
+		private PileupRecord buildRecord(int pos) {
+			PileupSiteRecord record = new PileupSiteRecord(span.ref, pos, UPPER[refBase(pos) & 0xFF], readers.length);
+
+			for (int i = 0; i < readers.length; i++) {
+				List<Read> reads = active.get(i);
+				if (reads.isEmpty()) {
+					record.addSampleRecord(0, null);
+					continue;
+				}
+
+				List<PileupBaseCall> calls = new ArrayList<PileupBaseCall>(reads.size());
+				for (Read read: reads) {
+					addCalls(record, read, pos, calls);
+				}
+				record.addSampleRecord(reads.size(), calls);
+			}
+			return record;
+		}
+
+		private void addCalls(PileupRecord record, Read read, int pos, List<PileupBaseCall> calls) {
+			read.seek(pos);
+			CigarOperator op = read.ops[read.elem];
+			int len = read.lens[read.elem];
+			int offset = pos - read.elemRefStart;
+
+			int readPos;
+			if (isAlignment(op)) {
+				int qpos = read.elemReadStart + offset;
+				int qual = read.qual(qpos);
+				if (qual > minBaseQual) {
+					int base = read.base(qpos) & 0xFF;
+					calls.add(record.new PileupBaseCall(PileupBaseCallOp.Match, read.plusStrand ? UPPER[base] : LOWER[base], qual, qpos + 1));
+				}
+				readPos = qpos + 1;
+			} else if (op == CigarOperator.D) {
+				// no base, but an insertion can follow
+				readPos = read.elemReadStart;
+			} else {
+				return;
+			}
+
+			if (offset < len - 1 || read.elem + 1 >= read.ops.length) {
+				return;
+			}
+
+			// indels are reported at the base before them
+			CigarOperator nextOp = read.ops[read.elem + 1];
+			int nextLen = read.lens[read.elem + 1];
+			if (nextOp == CigarOperator.I) {
+				int qpos = read.elemReadStart + (op.consumesReadBases() ? len : 0);
+				StringBuilder sb = new StringBuilder(nextLen);
+				for (int i = 0; i < nextLen; i++) {
+					sb.append((char) read.base(qpos + i));
+				}
+				String seq = sb.toString();
+				calls.add(record.new PileupBaseCall(PileupBaseCallOp.Ins, read.plusStrand ? seq.toUpperCase() : seq.toLowerCase(), -1, readPos));
+			} else if (nextOp == CigarOperator.D && isAlignment(op)) {
+				StringBuilder sb = new StringBuilder(nextLen);
+				for (int i = 1; i <= nextLen; i++) {
+					sb.append((char) refBase(pos + i));
+				}
+				String seq = sb.toString();
+				calls.add(record.new PileupBaseCall(PileupBaseCallOp.Del, read.plusStrand ? seq.toUpperCase() : seq.toLowerCase(), -1, readPos));
+			}
+		}
+	}
+}
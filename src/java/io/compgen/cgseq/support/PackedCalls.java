@@ -0,0 +1,152 @@
+package io.compgen.cgseq.support;
+
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The base calls for one sample at one site, packed into one long per read.
+ *
+ * This holds the same values as a list of PileupBaseCall objects (op, call, quality,
+ * strand, and read position), but without an object per read. It is meant to be reused:
+ * call {@link #clear()} and add the calls for the next site.
+ *
+ * Layout of each call:
+ *   bits 0-31  - read position
+ *   bits 32-40 - quality + 1 (indels have a quality of -1)
+ *   bits 41-42 - op (PileupBaseCallOp ordinal)
+ *   bit 43     - plus strand
+ *   bits 44-63 - the base (upper case) for a match, or the index of the sequence for an indel
+ *
+ * Indel sequences are kept in a side table (indels are rare compared to bases).
+ *
+ * Not thread-safe.
+ */
+public class PackedCalls {
+	private static final PileupBaseCallOp[] OPS = PileupBaseCallOp.values();
+	private static final String[] BASES = new String[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			BASES[i] = String.valueOf((char) i);
+		}
+	}
+
+	private static final int QUAL_SHIFT = 32;
+	private static final int OP_SHIFT = 41;
+	private static final int STRAND_SHIFT = 43;
+	private static final int VALUE_SHIFT = 44;
+
+	private long[] calls = new long[256];
+	private int size = 0;
+
+	private String[] seqs = new String[8];
+	private String[] names = new String[8];
+	private int seqCount = 0;
+
+	public void clear() {
+		for (int i = 0; i < seqCount; i++) {
+			seqs[i] = null;
+			names[i] = null;
+		}
+		size = 0;
+		seqCount = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param base - the base (upper case)
+	 */
+	public void addMatch(byte base, int qual, boolean plusStrand, int readPos) {
+		add(PileupBaseCallOp.Match, base & 0xFF, qual, plusStrand, readPos);
+	}
+
+	/**
+	 * @param seq - the inserted or deleted sequence (upper case)
+	 */
+	public void addIndel(PileupBaseCallOp op, String seq, boolean plusStrand, int readPos) {
+		if (seqCount == seqs.length) {
+			seqs = Arrays.copyOf(seqs, seqs.length * 2);
+			names = Arrays.copyOf(names, names.length * 2);
+		}
+		seqs[seqCount] = seq;
+		names[seqCount] = (op == PileupBaseCallOp.Ins ? "+" : "-") + seq;
+		add(op, seqCount++, -1, plusStrand, readPos);
+	}
+
+	public void add(PileupBaseCall call) {
+		if (call.op == PileupBaseCallOp.Match) {
+			add(PileupBaseCallOp.Match, call.call.charAt(0) & 0xFF, call.qual, call.plusStrand, call.readPos);
+		} else {
+			addIndel(call.op, call.call, call.plusStrand, call.readPos);
+		}
+	}
+
+	public void addAll(List<PileupBaseCall> calls) {
+		for (PileupBaseCall call: calls) {
+			add(call);
+		}
+	}
+
+	private void add(PileupBaseCallOp op, int value, int qual, boolean plusStrand, int readPos) {
+		if (size == calls.length) {
+			calls = Arrays.copyOf(calls, calls.length * 2);
+		}
+		calls[size++] = (readPos & 0xFFFFFFFFL)
+				| ((long) ((qual + 1) & 0x1FF) << QUAL_SHIFT)
+				| ((long) op.ordinal() << OP_SHIFT)
+				| (plusStrand ? 1L << STRAND_SHIFT : 0L)
+				| ((long) value << VALUE_SHIFT);
+	}
+
+	public PileupBaseCallOp getOp(int i) {
+		return OPS[(int) (calls[i] >>> OP_SHIFT) & 0x3];
+	}
+
+	public boolean isMatch(int i) {
+		return ((calls[i] >>> OP_SHIFT) & 0x3) == 0;
+	}
+
+	public int getQual(int i) {
+		return ((int) (calls[i] >>> QUAL_SHIFT) & 0x1FF) - 1;
+	}
+
+	public boolean isPlusStrand(int i) {
+		return ((calls[i] >>> STRAND_SHIFT) & 0x1) == 1;
+	}
+
+	public int getReadPos(int i) {
+		return (int) calls[i];
+	}
+
+	/**
+	 * @return the base for a match (upper case)
+	 */
+	public byte getBase(int i) {
+		return (byte) (calls[i] >>> VALUE_SHIFT);
+	}
+
+	/**
+	 * @return the call (same as PileupBaseCall.call)
+	 */
+	public String getCall(int i) {
+		if (isMatch(i)) {
+			return BASES[getBase(i) & 0xFF];
+		}
+		return seqs[(int) (calls[i] >>> VALUE_SHIFT)];
+	}
+
+	/**
+	 * @return the call as a name ("A", "+AG", "-C"), same as PileupBaseCall.toString()
+	 */
+	public String getName(int i) {
+		if (isMatch(i)) {
+			return BASES[getBase(i) & 0xFF];
+		}
+		return names[(int) (calls[i] >>> VALUE_SHIFT)];
+	}
+}
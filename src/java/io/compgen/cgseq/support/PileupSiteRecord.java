@@ -0,0 +1,44 @@
+package io.compgen.cgseq.support;
+
+import io.compgen.ngsutils.pileup.PileupRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A PileupRecord that is built directly (not parsed from an mpileup line). PileupRecord
+ * doesn't let us add sample records, so this one keeps its own.
+ */
+class PileupSiteRecord extends PileupRecord {
+	private final List<PileupSampleRecord> samples;
+
+	PileupSiteRecord(String ref, int pos, String refBase, int sampleCount) {
+		super(ref, pos, refBase);
+		this.samples = new ArrayList<PileupSampleRecord>(sampleCount);
+	}
+
+	void addSampleRecord(int coverage, List<PileupBaseCall> calls) {
+		samples.add(new PileupSampleRecord(coverage, calls));
+	}
+
+	@Override
+	public int getSampleCount(int sampleNum) {
+		if (sampleNum < 0 || sampleNum >= samples.size()) {
+			return -1;
+		}
+		return samples.get(sampleNum).coverage;
+	}
+
+	@Override
+	public PileupSampleRecord getSampleRecords(int sampleNum) {
+		if (sampleNum < 0 || sampleNum >= samples.size()) {
+			return null;
+		}
+		return samples.get(sampleNum);
+	}
+
+	@Override
+	public boolean isBlank() {
+		return samples.size() == 0;
+	}
+}
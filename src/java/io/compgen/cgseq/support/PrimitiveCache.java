@@ -0,0 +1,155 @@
+package io.compgen.cgseq.support;
+
+/**
+ * A fixed-size cache of double values keyed on (int, double, double), e.g. Skellam
+ * probabilities for (k, mu1, mu2). Keys and values are kept in primitive arrays, so
+ * there is no boxing and no per-entry allocation.
+ *
+ * The table is split into independently locked stripes, so it can be shared across
+ * threads. Each stripe is set-associative: a key hashes to a set of WAYS slots and
+ * can only live there. When a set is full, a slot is evicted using the CLOCK algorithm
+ * (a reference bit per slot), which approximates LRU.
+ *
+ * Doubles are compared by their bits (Double.doubleToLongBits), so 0.0 and -0.0 are
+ * different keys. A miss is returned as NaN, so NaN values can't be cached.
+ */
+public class PrimitiveCache {
+	private static final int WAYS = 8;
+	private static final int STRIPES = 16;
+
+	private static class Stripe {
+		private final int[] ks;
+		private final long[] as;
+		private final long[] bs;
+		private final double[] vals;
+		private final boolean[] used;
+		private final boolean[] ref;
+		private final byte[] hands;
+		private final int setMask;
+
+		private Stripe(int sets) {
+			ks = new int[sets * WAYS];
+			as = new long[sets * WAYS];
+			bs = new long[sets * WAYS];
+			vals = new double[sets * WAYS];
+			used = new boolean[sets * WAYS];
+			ref = new boolean[sets * WAYS];
+			hands = new byte[sets];
+			setMask = sets - 1;
+		}
+
+		private synchronized double get(int set, int k, long a, long b) {
+			final int start = (set & setMask) * WAYS;
+			for (int i = start; i < start + WAYS; i++) {
+				if (used[i] && ks[i] == k && as[i] == a && bs[i] == b) {
+					ref[i] = true;
+					return vals[i];
+				}
+			}
+			return Double.NaN;
+		}
+
+		private synchronized void put(int set, int k, long a, long b, double val) {
+			set = set & setMask;
+			final int start = set * WAYS;
+			int empty = -1;
+			for (int i = start; i < start + WAYS; i++) {
+				if (used[i]) {
+					if (ks[i] == k && as[i] == a && bs[i] == b) {
+						vals[i] = val;
+						ref[i] = true;
+						return;
+					}
+				} else if (empty == -1) {
+					empty = i;
+				}
+			}
+
+			int slot = empty;
+			if (slot == -1) {
+				// CLOCK: clear reference bits until we find an unreferenced slot
+				int hand = hands[set];
+				while (ref[start + hand]) {
+					ref[start + hand] = false;
+					hand = (hand + 1) % WAYS;
+				}
+				slot = start + hand;
+				hands[set] = (byte) ((hand + 1) % WAYS);
+			}
+
+			ks[slot] = k;
+			as[slot] = a;
+			bs[slot] = b;
+			vals[slot] = val;
+			used[slot] = true;
+			ref[slot] = false;
+		}
+
+		private synchronized void clear() {
+			for (int i = 0; i < used.length; i++) {
+				used[i] = false;
+				ref[i] = false;
+			}
+			for (int i = 0; i < hands.length; i++) {
+				hands[i] = 0;
+			}
+		}
+	}
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final int capacity;
+
+	/**
+	 * @param maxSize - minimum number of entries (rounded up to a power of two)
+	 */
+	public PrimitiveCache(int maxSize) {
+		int sets = 1;
+		while (sets * WAYS * STRIPES < maxSize) {
+			sets = sets * 2;
+		}
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(sets);
+		}
+		capacity = sets * WAYS * STRIPES;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the cached value, or NaN if it isn't present
+	 */
+	public double get(int k, double a, double b) {
+		final long abits = Double.doubleToLongBits(a);
+		final long bbits = Double.doubleToLongBits(b);
+		final long h = hash(k, abits, bbits);
+		return stripes[(int) (h >>> 60)].get((int) h, k, abits, bbits);
+	}
+
+	public void put(int k, double a, double b, double val) {
+		final long abits = Double.doubleToLongBits(a);
+		final long bbits = Double.doubleToLongBits(b);
+		final long h = hash(k, abits, bbits);
+		stripes[(int) (h >>> 60)].put((int) h, k, abits, bbits, val);
+	}
+
+	public void clear() {
+		for (Stripe stripe: stripes) {
+			stripe.clear();
+		}
+	}
+
+	private static long hash(int k, long a, long b) {
+		// combine, then finalize with the murmur3 fmix64 mixer so all bits are used
+		long h = a * 0x9E3779B97F4A7C15L;
+		h = (h ^ b) * 0xC2B2AE3D27D4EB4FL;
+		h = h ^ k;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
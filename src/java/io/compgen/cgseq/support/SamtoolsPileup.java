@@ -0,0 +1,103 @@
+package io.compgen.cgseq.support;
+
+import htsjdk.samtools.util.CloseableIterator;
+import io.compgen.common.StringUtils;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.pileup.BAMPileup;
+import io.compgen.ngsutils.pileup.PileupReader;
+import io.compgen.ngsutils.pileup.PileupRecord;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Runs the samtools mpileup command for a BAMPileup and iterates over the records.
+ *
+ * BAMPileup.pileup() closes the samtools output as soon as the process exits, so anything
+ * that hasn't been read yet is silently dropped. This shows up as missing sites at the end
+ * of a region whenever the reader is slower than samtools (e.g. when several regions are
+ * called in parallel). Here the output is always read to the end, and then the exit code
+ * is checked.
+ *
+ * If the records aren't read to the end, close() the iterator to stop samtools (otherwise
+ * it blocks on a full pipe).
+ */
+public class SamtoolsPileup {
+	private SamtoolsPileup() {}
+
+	/**
+	 * @param pileup - the samtools options (BAM files, filters, etc)
+	 * @param region - region to pileup (null for everything)
+	 * @param minBaseQual - same as the BAMPileup min base quality (used when parsing calls)
+	 */
+	public static CloseableIterator<PileupRecord> pileup(BAMPileup pileup, GenomeSpan region, int minBaseQual) {
+		final List<String> command = pileup.getCommand(region);
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+		final Process proc;
+		try {
+			proc = pb.start();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot start samtools mpileup! " + e.getMessage());
+		}
+
+		final InputStream in = new BufferedInputStream(proc.getInputStream());
+		final Iterator<PileupRecord> it = new PileupReader(in, minBaseQual).iterator();
+
+		return new CloseableIterator<PileupRecord>() {
+			private boolean done = false;
+
+			@Override
+			public boolean hasNext() {
+				if (done) {
+					return false;
+				}
+				if (it.hasNext()) {
+					return true;
+				}
+
+				done = true;
+				try {
+					if (proc.waitFor() != 0) {
+						throw new RuntimeException("Error running: " + StringUtils.join(" ", command));
+					}
+				} catch (InterruptedException e) {
+					proc.destroy();
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while running: " + StringUtils.join(" ", command));
+				}
+				return false;
+			}
+
+			@Override
+			public PileupRecord next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				if (!done) {
+					done = true;
+					proc.destroy();
+				}
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,272 @@
+package io.compgen.cgseq.support;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log Skellam probabilities for the two genotype models used by the Skellam variant
+ * caller, indexed by total depth and the difference between the major/minor counts.
+ *
+ * For a depth (d), the hom model is Skellam(k; d * homFreq, 1) and the het model is
+ * Skellam(k; d * hetFreq, d * hetFreq). Because the means only depend on the depth, a
+ * whole row (k=0..d) can be calculated at once from a single Bessel recurrence the first
+ * time that depth is seen. Lookups after that are an array access.
+ *
+ * Rows are kept for depths up to maxDepth; anything above that (or a negative k)
+ * returns NaN, and the caller should calculate the value directly. Rows are published
+ * through an AtomicReferenceArray, so a memo can be shared across threads.
+ *
+ * Because the hom/het decision also only depends on the depth and the minor count, the
+ * minor count where het becomes at least as likely as hom is kept for each depth
+ * ({@link #hetThreshold(int)}), so a call can be made with an integer comparison.
+ *
+ * The rows can also be precomputed into a file ({@link #write(String, double, double, int)})
+ * and memory-mapped read-only ({@link #load(String, double, double)}), so that many
+ * processes can share one page-cached copy. File layout (big-endian):
+ *
+ *   long magic, double homFreq, double hetFreq, int maxDepth, int (unused),
+ *   hom rows for depths 0..maxDepth (depth d has d+1 values, k=0..d),
+ *   het rows for depths 0..maxDepth
+ */
+public class SkellamDepthMemo {
+	public static final int DEFAULT_MAX_DEPTH = 1000;
+
+	/**
+	 * Returned by hetThreshold if the decision can't be made from the memo
+	 */
+	public static final int NO_THRESHOLD = -1;
+
+	/**
+	 * Returned by hetThreshold if het is never more likely than hom at a depth
+	 */
+	public static final int NEVER_HET = Integer.MAX_VALUE;
+
+	private static final long MAGIC = 0x43475351534b4d31L; // CGSQSKM1
+	private static final int HEADER_SIZE = 32;
+
+	public final double homFreq;
+	public final double hetFreq;
+	public final int maxDepth;
+
+	private final AtomicReferenceArray<double[]> homRows;
+	private final AtomicReferenceArray<double[]> hetRows;
+
+	// 0 means the threshold for that depth hasn't been calculated yet
+	private final AtomicIntegerArray thresholds;
+
+	// set if this memo is backed by a mapped file
+	private final DoubleBuffer mapped;
+
+	public SkellamDepthMemo(double homFreq, double hetFreq, int maxDepth) {
+		this.homFreq = homFreq;
+		this.hetFreq = hetFreq;
+		this.maxDepth = maxDepth;
+		this.homRows = new AtomicReferenceArray<double[]>(maxDepth + 1);
+		this.hetRows = new AtomicReferenceArray<double[]>(maxDepth + 1);
+		this.thresholds = new AtomicIntegerArray(maxDepth + 1);
+		this.mapped = null;
+	}
+
+	private SkellamDepthMemo(double homFreq, double hetFreq, int maxDepth, DoubleBuffer mapped) {
+		this.homFreq = homFreq;
+		this.hetFreq = hetFreq;
+		this.maxDepth = maxDepth;
+		this.homRows = null;
+		this.hetRows = null;
+		this.thresholds = new AtomicIntegerArray(maxDepth + 1);
+		this.mapped = mapped;
+	}
+
+	public SkellamDepthMemo(double homFreq, double hetFreq) {
+		this(homFreq, hetFreq, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * @param k - difference between the major and minor counts (0..depth)
+	 * @param depth - total (major + minor) count
+	 * @return ln Skellam(k; depth * homFreq, 1), or NaN if it isn't in the memo
+	 */
+	public double logHom(int k, int depth) {
+		if (k < 0 || k > depth || depth < 1 || depth > maxDepth) {
+			return Double.NaN;
+		}
+		if (mapped != null) {
+			return mapped.get(rowOffset(depth) + k);
+		}
+		double[] row = homRows.get(depth);
+		if (row == null) {
+			row = calcRow(depth * homFreq, 1, depth);
+			homRows.set(depth, row);
+		}
+		return row[k];
+	}
+
+	/**
+	 * @param k - difference between the major and minor counts (0..depth)
+	 * @param depth - total (major + minor) count
+	 * @return ln Skellam(k; depth * hetFreq, depth * hetFreq), or NaN if it isn't in the memo
+	 */
+	public double logHet(int k, int depth) {
+		if (k < 0 || k > depth || depth < 1 || depth > maxDepth) {
+			return Double.NaN;
+		}
+		if (mapped != null) {
+			return mapped.get(rowOffset(maxDepth + 1) + rowOffset(depth) + k);
+		}
+		double[] row = hetRows.get(depth);
+		if (row == null) {
+			row = calcRow(depth * hetFreq, depth * hetFreq, depth);
+			hetRows.set(depth, row);
+		}
+		return row[k];
+	}
+
+	/**
+	 * The smallest minor count (1..depth/2) where the het model is at least as likely as
+	 * the hom model (logHet(depth - 2 * minor) >= logHom(depth - 2 * minor)). With this,
+	 * a site is het if minor >= threshold.
+	 *
+	 * The threshold is only used if the decision is monotone in the minor count and all of
+	 * the values at this depth are valid; otherwise (or if the depth isn't in the memo)
+	 * this returns NO_THRESHOLD, and the probabilities need to be compared directly.
+	 *
+	 * @param depth - total (major + minor) count
+	 * @return the minor count threshold, NEVER_HET, or NO_THRESHOLD
+	 */
+	public int hetThreshold(int depth) {
+		if (depth < 1 || depth > maxDepth) {
+			return NO_THRESHOLD;
+		}
+		int threshold = thresholds.get(depth);
+		if (threshold == 0) {
+			threshold = calcThreshold(depth);
+			thresholds.set(depth, threshold);
+		}
+		return threshold;
+	}
+
+	private int calcThreshold(int depth) {
+		int threshold = NEVER_HET;
+		for (int minor = 0; minor * 2 <= depth; minor++) {
+			final double hom = logHom(depth - 2 * minor, depth);
+			final double het = logHet(depth - 2 * minor, depth);
+			if (Double.isNaN(hom) || Double.isNaN(het)) {
+				return NO_THRESHOLD;
+			}
+			if (minor == 0) {
+				// with no minor calls, the site can't be het, but the values still need to be valid
+				continue;
+			}
+			if (het >= hom) {
+				if (threshold == NEVER_HET) {
+					threshold = minor;
+				}
+			} else if (threshold != NEVER_HET) {
+				// het, then hom again -- no single threshold
+				return NO_THRESHOLD;
+			}
+		}
+		return threshold;
+	}
+
+	/**
+	 * ln Skellam(k; mu1, mu2) for k=0..maxK. Two threads may race to build the same row,
+	 * but the results are identical, so either one can win.
+	 */
+	public static double[] calcRow(double mu1, double mu2, int maxK) {
+		double[] row = new double[maxK + 1];
+		BesselI.logSequence(2 * Math.sqrt(mu1 * mu2), maxK + 1, row);
+
+		final double halfLogRatio = Math.log(mu1 / mu2) / 2;
+		for (int k = 0; k <= maxK; k++) {
+			row[k] = k * halfLogRatio - mu1 - mu2 + row[k];
+		}
+		return row;
+	}
+
+	/**
+	 * Precompute the hom and het rows for depths 0..maxDepth and write them to a file
+	 * that can be mapped with {@link #load(String, double, double)}.
+	 */
+	public static void write(String filename, double homFreq, double hetFreq, int maxDepth) throws IOException {
+		if (fileSize(maxDepth) > Integer.MAX_VALUE) {
+			throw new IOException("Max depth is too large for a mapped memo: " + maxDepth);
+		}
+
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(filename));
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeLong(MAGIC);
+		dos.writeDouble(homFreq);
+		dos.writeDouble(hetFreq);
+		dos.writeInt(maxDepth);
+		dos.writeInt(0);
+
+		for (int depth = 0; depth <= maxDepth; depth++) {
+			for (double val: calcRow(depth * homFreq, 1, depth)) {
+				dos.writeDouble(val);
+			}
+		}
+		for (int depth = 0; depth <= maxDepth; depth++) {
+			for (double val: calcRow(depth * hetFreq, depth * hetFreq, depth)) {
+				dos.writeDouble(val);
+			}
+		}
+		dos.close();
+	}
+
+	/**
+	 * Memory-map a memo file (read-only). The frequencies must match the ones the file
+	 * was written with, otherwise the values would be for a different caller configuration.
+	 */
+	public static SkellamDepthMemo load(String filename, double homFreq, double hetFreq) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Invalid Skellam memo file: " + filename);
+			}
+
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getLong(0) != MAGIC) {
+				throw new IOException("Invalid Skellam memo file: " + filename);
+			}
+
+			double fileHomFreq = buf.getDouble(8);
+			double fileHetFreq = buf.getDouble(16);
+			int fileMaxDepth = buf.getInt(24);
+
+			if (Double.doubleToLongBits(fileHomFreq) != Double.doubleToLongBits(homFreq) || Double.doubleToLongBits(fileHetFreq) != Double.doubleToLongBits(hetFreq)) {
+				throw new IOException("Skellam memo file " + filename + " was written for different frequencies (hom=" + fileHomFreq + ", het=" + fileHetFreq + "), expected hom=" + homFreq + ", het=" + hetFreq);
+			}
+			if (fileMaxDepth < 0 || channel.size() != fileSize(fileMaxDepth)) {
+				throw new IOException("Skellam memo file is truncated: " + filename);
+			}
+
+			buf.position(HEADER_SIZE);
+			return new SkellamDepthMemo(homFreq, hetFreq, fileMaxDepth, buf.slice().asDoubleBuffer());
+		} finally {
+			// the mapping stays valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Offset of the row for a depth (sum of row lengths for depths 0..depth-1)
+	 */
+	private static int rowOffset(int depth) {
+		return (int) (((long) depth * (depth + 1)) / 2);
+	}
+
+	private static long fileSize(int maxDepth) {
+		return HEADER_SIZE + 2L * 8 * (((long) maxDepth + 1) * (maxDepth + 2) / 2);
+	}
+}
@@ -0,0 +1,80 @@
+package io.compgen.cgseq.support;
+
+/**
+ * The Skellam PMF (and CDF) for a given (mu1, mu2) across a range of differences (k),
+ * calculated from a single Bessel function recurrence. Once built, looking up a value
+ * is just an array access.
+ *
+ * Values are kept for k=-maxK..maxK. The CDF is accumulated from -maxK, so any mass
+ * below that is ignored -- {@link Stats#skellamTable(double, double)} picks a range that
+ * covers the distribution to working precision.
+ */
+public class SkellamTable {
+	public final double mu1;
+	public final double mu2;
+	public final int maxK;
+
+	private final double[] logPmf;
+	private final double[] pmf;
+	private final double[] cdf;
+
+	public SkellamTable(double mu1, double mu2, int maxK) {
+		this.mu1 = mu1;
+		this.mu2 = mu2;
+		this.maxK = maxK;
+
+		double[] logI = new double[maxK + 1];
+		BesselI.logSequence(2 * Math.sqrt(mu1 * mu2), maxK + 1, logI);
+
+		logPmf = new double[maxK * 2 + 1];
+		pmf = new double[maxK * 2 + 1];
+		cdf = new double[maxK * 2 + 1];
+
+		final double halfLogRatio = Math.log(mu1 / mu2) / 2;
+		double acc = 0.0;
+
+		for (int k = -maxK; k <= maxK; k++) {
+			// I(-k) == I(k) for integer orders
+			int i = k + maxK;
+			logPmf[i] = k * halfLogRatio - mu1 - mu2 + logI[Math.abs(k)];
+			pmf[i] = Math.exp(logPmf[i]);
+			acc += pmf[i];
+			cdf[i] = acc;
+		}
+	}
+
+	/**
+	 * @param k - difference between counts
+	 * @return - probability of having the difference (k) (0.0 outside of +/-maxK)
+	 */
+	public double pmf(int k) {
+		if (k < -maxK || k > maxK) {
+			return 0.0;
+		}
+		return pmf[k + maxK];
+	}
+
+	/**
+	 * @param k - difference between counts
+	 * @return - natural log of the probability of having the difference (k) (-Infinity outside of +/-maxK)
+	 */
+	public double logPmf(int k) {
+		if (k < -maxK || k > maxK) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return logPmf[k + maxK];
+	}
+
+	/**
+	 * @param k - difference between counts
+	 * @return - probability of having a difference less than or equal to k
+	 */
+	public double cdf(int k) {
+		if (k < -maxK) {
+			return 0.0;
+		} else if (k > maxK) {
+			return cdf[cdf.length - 1];
+		}
+		return cdf[k + maxK];
+	}
+}
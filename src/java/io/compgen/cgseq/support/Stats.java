@@ -1,9 +1,19 @@
 package io.compgen.cgseq.support;
 
-import org.apache.commons.math3.distribution.BinomialDistribution;
-import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.apache.commons.math3.special.Gamma;
 
 public class Stats {
+	/** Tail sums stop once the terms drop below this fraction of the sum */
+	private static final double TAIL_EPSILON = 1.0e-17;
+
+	/** Precomputed ln(n!) for small n (covers typical per-site depths) */
+	private static final double[] LOG_FACTORIAL = new double[4096];
+	static {
+		for (int i = 0; i < LOG_FACTORIAL.length; i++) {
+			LOG_FACTORIAL[i] = Gamma.logGamma(i + 1.0);
+		}
+	}
+
 //	public static final double DEFAULT_DELTA = 1.0e-16;
 //	public interface InnerFunc {
 //		public double inner(int x);
@@ -19,10 +29,60 @@ public class Stats {
 	 */
 	
 	public static double skellam(int k, double mu1, double mu2) {
-		return Math.exp(-mu1-mu2) * Math.pow(mu1/mu2,k/2.0) * BesselI.value(k, 2 * Math.sqrt(mu1 * mu2));
+		return skellam(k, mu1, mu2, new double[BesselI.workspaceSize(Math.abs(k))]);
+	}
+
+	/**
+	 * Workspace version of {@link #skellam(int, double, double)}. This doesn't allocate anything.
+	 * @param k - difference between counts
+	 * @param mu1 - expected Poisson mean 1
+	 * @param mu2 - expected Poisson mean 2
+	 * @param work - Bessel workspace (at least BesselI.workspaceSize(|k|) long)
+	 * @return - probability of having the difference (k) between two Poisson counts given distributions means mu1 & mu2
+	 */
+	public static double skellam(int k, double mu1, double mu2, double[] work) {
+		// I(-k) == I(k) for integer orders
+		return Math.exp(-mu1-mu2) * Math.pow(mu1/mu2,k/2.0) * BesselI.value(Math.abs(k), 2 * Math.sqrt(mu1 * mu2), false, work);
+	}
+
+	/**
+	 * Log-space version of {@link #skellam(int, double, double)}. This doesn't underflow
+	 * for high counts (where exp(-mu1-mu2) or the Bessel function would go to zero).
+	 * 
+	 * @param k - difference between counts
+	 * @param mu1 - expected Poisson mean 1
+	 * @param mu2 - expected Poisson mean 2
+	 * @return - natural log of the probability of having the difference (k) between two Poisson counts
+	 */
+	public static double logSkellam(int k, double mu1, double mu2) {
+		return logSkellam(k, mu1, mu2, new double[BesselI.workspaceSize(Math.abs(k))]);
+	}
+
+	/**
+	 * Workspace version of {@link #logSkellam(int, double, double)}. This doesn't allocate anything.
+	 * @param k - difference between counts
+	 * @param mu1 - expected Poisson mean 1
+	 * @param mu2 - expected Poisson mean 2
+	 * @param work - Bessel workspace (at least BesselI.workspaceSize(|k|) long)
+	 * @return - natural log of the probability of having the difference (k) between two Poisson counts
+	 */
+	public static double logSkellam(int k, double mu1, double mu2, double[] work) {
+		return (k/2.0) * Math.log(mu1/mu2) - mu1 - mu2 + BesselI.logValue(Math.abs(k), 2 * Math.sqrt(mu1 * mu2), work);
 	}
 
 	
+	/**
+	 * Builds a table of Skellam probabilities for all k that have a non-negligible
+	 * probability (mean +/- 40 standard deviations)
+	 * 
+	 * @param mu1 - expected Poisson mean 1
+	 * @param mu2 - expected Poisson mean 2
+	 * @return
+	 */
+	public static SkellamTable skellamTable(double mu1, double mu2) {
+		return new SkellamTable(mu1, mu2, (int) Math.ceil(Math.abs(mu1 - mu2) + 40 * Math.sqrt(mu1 + mu2)) + 1);
+	}
+
 	/**
 	 * Given two Poisson means, calculate the number where the p-value for the difference (k) is highest.
 	 * @param mu1
@@ -31,11 +91,13 @@ public class Stats {
 	 */
 	public static int skellamCrossingPoint(double mu1, double mu2) {
 		int i = (int) Math.max(mu1, mu2);
+		SkellamTable table = new SkellamTable(mu1, mu2, i + 1);
+		
 		double maxval = 0.0;
 		double val = 0.0;
 
 		while (true) {
-			val = skellam(i, mu1, mu2);
+			val = table.pmf(i);
 //			System.err.println("i="+i+", val="+val+ ", maxval="+maxval);
 			if (val < maxval) {
 				return i+1;
@@ -45,13 +107,101 @@ public class Stats {
 		}
 	}
 
+	/**
+	 * Poisson probability (allocation-free)
+	 * @param k - observed count
+	 * @param mu - expected mean (> 0)
+	 * @return
+	 */
 	public static double poissonProb(int k, double mu) {
-		PoissonDistribution pois = new PoissonDistribution(mu);
-		return pois.probability(k);		
+		if (k < 0) {
+			return 0.0;
+		}
+		return Math.exp(poissonLogProb(k, mu));
 	}
 
+	/**
+	 * @param k - observed count
+	 * @param mu - expected mean (> 0)
+	 * @return - natural log of the Poisson probability
+	 */
+	public static double poissonLogProb(int k, double mu) {
+		if (k < 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return k * Math.log(mu) - mu - logFactorial(k);
+	}
 
 	/**
+	 * Poisson CDF, P(X <= k). This sums the PMF terms starting from k (using the ratio
+	 * between successive terms), so it only needs one exp() call. The shorter tail is
+	 * summed, so this is O(sqrt(mu)).
+	 * 
+	 * @param k - observed count
+	 * @param mu - expected mean (> 0)
+	 * @return
+	 */
+	public static double poissonCumulativeProb(int k, double mu) {
+		if (k < 0) {
+			return 0.0;
+		}
+		
+		if (k <= mu) {
+			// sum the lower tail: k, k-1, ..., 0
+			double term = poissonProb(k, mu);
+			double acc = term;
+			for (int i = k; i > 0 && term > acc * TAIL_EPSILON; i--) {
+				term = term * i / mu;
+				acc += term;
+			}
+			return acc;
+		}
+
+		// sum the upper tail: k+1, k+2, ...
+		double term = poissonProb(k + 1, mu);
+		double acc = term;
+		for (int i = k + 1; term > acc * TAIL_EPSILON; i++) {
+			term = term * mu / (i + 1);
+			acc += term;
+		}
+		return 1.0 - acc;
+	}
+
+	/**
+	 * Binomial probability (allocation-free)
+	 * @param k - observed successes
+	 * @param n - number of trials
+	 * @param p - expected rate
+	 * @return
+	 */
+	public static double binomialProb(int k, int n, double p) {
+		if (k < 0 || k > n) {
+			return 0.0;
+		}
+		return Math.exp(binomialLogProb(k, n, p));
+	}
+
+	/**
+	 * @param k - observed successes
+	 * @param n - number of trials
+	 * @param p - expected rate
+	 * @return - natural log of the binomial probability
+	 */
+	public static double binomialLogProb(int k, int n, double p) {
+		if (k < 0 || k > n) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (p == 0.0) {
+			return k == 0 ? 0.0 : Double.NEGATIVE_INFINITY;
+		} else if (p == 1.0) {
+			return k == n ? 0.0 : Double.NEGATIVE_INFINITY;
+		}
+		return logFactorial(n) - logFactorial(k) - logFactorial(n - k) + k * Math.log(p) + (n - k) * Math.log1p(-p);
+	}
+
+	/**
+	 * Binomial CDF, P(X <= k). Like the Poisson CDF, this sums the shorter tail
+	 * starting from k, so it doesn't allocate and only needs one exp() call.
 	 * 
 	 * @param k - observed successes
 	 * @param n - number of trials
@@ -59,8 +209,46 @@ public class Stats {
 	 * @return - one-sided p-value (for two-sided, divide by 2)
 	 */
 	public static double binomialCumulativeProb(int k, int n, double p) {
-		BinomialDistribution binom = new BinomialDistribution(n, p);
-		return binom.cumulativeProbability(k);
+		if (k < 0) {
+			return 0.0;
+		} else if (k >= n || p == 0.0) {
+			return 1.0;
+		} else if (p == 1.0) {
+			return 0.0;
+		}
+		
+		final double odds = p / (1 - p);
+
+		if (k <= n * p) {
+			// sum the lower tail: k, k-1, ..., 0
+			double term = binomialProb(k, n, p);
+			double acc = term;
+			for (int i = k; i > 0 && term > acc * TAIL_EPSILON; i--) {
+				term = term * i / ((n - i + 1) * odds);
+				acc += term;
+			}
+			return acc;
+		}
+
+		// sum the upper tail: k+1, k+2, ..., n
+		double term = binomialProb(k + 1, n, p);
+		double acc = term;
+		for (int i = k + 1; i < n && term > acc * TAIL_EPSILON; i++) {
+			term = term * (n - i) * odds / (i + 1);
+			acc += term;
+		}
+		return 1.0 - acc;
+	}
+
+	/**
+	 * @param n
+	 * @return ln(n!)
+	 */
+	public static double logFactorial(int n) {
+		if (n < LOG_FACTORIAL.length) {
+			return LOG_FACTORIAL[n];
+		}
+		return Gamma.logGamma(n + 1.0);
 	}
 }
 //	/**
@@ -0,0 +1,364 @@
+package io.compgen.cgseq.support;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes VCF text through a byte buffer (like TabWriter, but without making a String for
+ * each field or line). Numbers are formatted straight into the buffer.
+ *
+ * Fields are added with write() (tab separated), values within a field with append(),
+ * and eol() ends the line.
+ *
+ * When writing to a ".gz" file, the output is BGZF compressed and a tabix index (.tbi) is
+ * built as records are written, so there's no need for a separate bgzip/tabix pass.
+ *
+ * Not thread-safe.
+ */
+public class VcfWriter implements Closeable {
+	private static final int FLUSH_SIZE = 64 * 1024;
+
+	/**
+	 * The location of the current record (for the tabix index)
+	 */
+	private static class Record implements Feature {
+		private String chrom = null;
+		private int start;
+		private int end;
+
+		@Override
+		public String getChr() {
+			return chrom;
+		}
+
+		@Override
+		public int getStart() {
+			return start;
+		}
+
+		@Override
+		public int getEnd() {
+			return end;
+		}
+	}
+
+	private final OutputStream out;
+	private final BlockCompressedOutputStream bgzf;
+	private final TabixIndexCreator indexer;
+	private final File indexFile;
+	private final boolean closeOut;
+
+	private byte[] buf = new byte[FLUSH_SIZE * 2];
+	private int len = 0;
+	private int lineStart = 0;
+	private boolean fieldStart = true;
+
+	private final Record record = new Record();
+	private byte[] chromBytes = new byte[0];
+	private final StringBuilder scratch = new StringBuilder();
+
+	/**
+	 * Writes plain text to a stream (the stream isn't closed by close())
+	 */
+	public VcfWriter(OutputStream out) {
+		this.out = out;
+		this.bgzf = null;
+		this.indexer = null;
+		this.indexFile = null;
+		this.closeOut = false;
+	}
+
+	/**
+	 * @param filename - output file ("-" for stdout). ".gz" files are BGZF compressed and tabix indexed.
+	 * @param dict - contig order for the index (can be null, then contigs are indexed in the order they are written)
+	 */
+	public VcfWriter(String filename, SAMSequenceDictionary dict) throws IOException {
+		if (filename.equals("-")) {
+			this.out = System.out;
+			this.bgzf = null;
+			this.indexer = null;
+			this.indexFile = null;
+			this.closeOut = false;
+		} else if (filename.endsWith(".gz")) {
+			this.bgzf = new BlockCompressedOutputStream(filename);
+			this.out = bgzf;
+			this.indexer = dict == null ? new TabixIndexCreator(TabixFormat.VCF) : new TabixIndexCreator(dict, TabixFormat.VCF);
+			this.indexFile = new File(filename);
+			this.closeOut = true;
+		} else {
+			this.out = new BufferedOutputStream(new FileOutputStream(filename));
+			this.bgzf = null;
+			this.indexer = null;
+			this.indexFile = null;
+			this.closeOut = true;
+		}
+	}
+
+	/**
+	 * Write a full line (a header line, or a record that has already been formatted)
+	 */
+	public void writeLine(String line) throws IOException {
+		append(line);
+		eol();
+	}
+
+	/**
+	 * Copy lines from a stream (e.g. records written by another VcfWriter). The stream isn't closed.
+	 */
+	public void writeLines(InputStream in) throws IOException {
+		byte[] chunk = new byte[FLUSH_SIZE];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			int start = 0;
+			for (int i = 0; i < read; i++) {
+				if (chunk[i] == '\n') {
+					append(chunk, start, i - start);
+					eol();
+					start = i + 1;
+				}
+			}
+			append(chunk, start, read - start);
+		}
+		if (len > lineStart) {
+			eol();
+		}
+	}
+
+	/**
+	 * Start a new field
+	 */
+	public void write(String val) {
+		nextField();
+		append(val);
+	}
+
+	public void write(int val) {
+		nextField();
+		append(val);
+	}
+
+	/**
+	 * Append a value to the current field (non-ASCII text is written as UTF-8)
+	 */
+	public void append(CharSequence val) {
+		final int size = val.length();
+		ensure(size);
+		for (int i = 0; i < size; i++) {
+			final char c = val.charAt(i);
+			if (c >= 0x80) {
+				appendUTF8(val, i);
+				return;
+			}
+			buf[len++] = (byte) c;
+		}
+	}
+
+	public void append(char val) {
+		if (val >= 0x80) {
+			appendUTF8(String.valueOf(val), 0);
+			return;
+		}
+		ensure(1);
+		buf[len++] = (byte) val;
+	}
+
+	private void appendUTF8(CharSequence val, int start) {
+		byte[] bytes = val.subSequence(start, val.length()).toString().getBytes(StandardCharsets.UTF_8);
+		append(bytes, 0, bytes.length);
+	}
+
+	public void append(int val) {
+		ensure(11);
+		if (val < 0) {
+			buf[len++] = '-';
+		}
+		long v = Math.abs((long) val);
+
+		int digits = 1;
+		for (long tmp = v; tmp >= 10; tmp /= 10) {
+			digits++;
+		}
+		for (int i = len + digits - 1; i >= len; i--) {
+			buf[i] = (byte) ('0' + (v % 10));
+			v /= 10;
+		}
+		len += digits;
+	}
+
+	/**
+	 * Same format as StringBuilder.append(double)
+	 */
+	public void append(double val) {
+		scratch.setLength(0);
+		scratch.append(val);
+		append(scratch);
+	}
+
+	private void append(byte[] src, int off, int size) {
+		ensure(size);
+		System.arraycopy(src, off, buf, len, size);
+		len += size;
+	}
+
+	private void nextField() {
+		if (!fieldStart) {
+			ensure(1);
+			buf[len++] = '\t';
+		}
+		fieldStart = false;
+	}
+
+	/**
+	 * End the current line
+	 */
+	public void eol() throws IOException {
+		if (len > lineStart && buf[len - 1] == '\r') {
+			len--;
+		}
+		ensure(1);
+		buf[len++] = '\n';
+
+		if (indexer != null) {
+			// each record has to be written before the next one starts, so its position is known
+			if (buf[lineStart] != '#' && parseRecord(lineStart, len - 1)) {
+				long pos = bgzf.getFilePointer();
+				bgzf.write(buf, 0, len);
+				indexer.addFeature(record, pos);
+			} else {
+				bgzf.write(buf, 0, len);
+			}
+			len = 0;
+		} else if (len >= FLUSH_SIZE) {
+			out.write(buf, 0, len);
+			len = 0;
+		}
+		lineStart = len;
+		fieldStart = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (len > lineStart) {
+			eol();
+		}
+		if (len > 0) {
+			out.write(buf, 0, len);
+			len = 0;
+		}
+
+		if (indexer != null) {
+			Index index = indexer.finalizeIndex(bgzf.getFilePointer());
+			bgzf.close();
+			index.writeBasedOnFeatureFile(indexFile);
+		} else if (closeOut) {
+			out.close();
+		} else {
+			out.flush();
+		}
+	}
+
+	private void ensure(int size) {
+		if (len + size > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + size));
+		}
+	}
+
+	/**
+	 * Set the location of the record in buf[start..end) (chrom, POS, and END=, or the length of REF)
+	 *
+	 * @return false if this isn't a record
+	 */
+	private boolean parseRecord(int start, int end) {
+		int i = nextTab(start, end);
+		if (i == end) {
+			return false;
+		}
+		if (!sameChrom(start, i)) {
+			chromBytes = Arrays.copyOfRange(buf, start, i);
+			record.chrom = new String(chromBytes, StandardCharsets.US_ASCII);
+		}
+
+		int posEnd = nextTab(i + 1, end);
+		int pos = parseInt(i + 1, posEnd);
+
+		// ID
+		i = nextTab(posEnd + 1, end);
+		// REF
+		int refEnd = nextTab(i + 1, end);
+		int refLen = refEnd - i - 1;
+
+		// ALT, QUAL, FILTER
+		i = nextTab(refEnd + 1, end);
+		i = nextTab(i + 1, end);
+		i = nextTab(i + 1, end);
+
+		// INFO (for END=)
+		int infoEnd = nextTab(i + 1, end);
+		int recEnd = pos + Math.max(refLen, 1) - 1;
+		for (int j = i + 1; j < infoEnd; j = nextInfo(j, infoEnd) + 1) {
+			if (j + 4 <= infoEnd && buf[j] == 'E' && buf[j + 1] == 'N' && buf[j + 2] == 'D' && buf[j + 3] == '=') {
+				recEnd = parseInt(j + 4, nextInfo(j, infoEnd));
+				break;
+			}
+		}
+
+		record.start = pos;
+		record.end = recEnd;
+		return true;
+	}
+
+	private boolean sameChrom(int start, int end) {
+		if (end - start != chromBytes.length) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (buf[i] != chromBytes[i - start]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int nextTab(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buf[i] == '\t') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private int nextInfo(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buf[i] == ';') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private int parseInt(int start, int end) {
+		int val = 0;
+		for (int i = start; i < end; i++) {
+			if (buf[i] < '0' || buf[i] > '9') {
+				throw new NumberFormatException("Bad number: " + new String(buf, start, end - start, StandardCharsets.US_ASCII));
+			}
+			val = val * 10 + (buf[i] - '0');
+		}
+		return val;
+	}
+}
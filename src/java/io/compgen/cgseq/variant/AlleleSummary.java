@@ -0,0 +1,264 @@
+package io.compgen.cgseq.variant;
+
+import io.compgen.cgseq.support.PackedCalls;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import java.util.List;
+
+/**
+ * Per-site allele counts, built in a single pass over the base calls.
+ *
+ * Alleles are identified by an int: A, C, G, T, N are fixed (0-4), and indels (or any
+ * other call) get the next free id in the order they are seen. For each allele, the
+ * number of plus- and minus-strand calls is kept, and the allele and read position of
+ * each accepted call are kept for read-position tests.
+ *
+ * A call is accepted if its quality is above minQual, or if it is an indel (mpileup
+ * doesn't report indel qualities).
+ *
+ * Summaries are meant to be reused (call {@link #summarize(List, int)} for each site),
+ * and aren't thread-safe. Calls can also be given packed (PackedCalls), which gives the
+ * same summary without a PileupBaseCall per read.
+ */
+public class AlleleSummary {
+	public static final int A = 0;
+	public static final int C = 1;
+	public static final int G = 2;
+	public static final int T = 3;
+	public static final int N = 4;
+	private static final int BASES = 5;
+
+	private static final String[] BASE_NAMES = new String[] { "A", "C", "G", "T", "N" };
+
+	private int alleleCount = BASES;
+	private int[] plus = new int[16];
+	private int[] minus = new int[16];
+
+	// side table for indels and other calls (ids >= BASES)
+	private PileupBaseCallOp[] ops = new PileupBaseCallOp[16];
+	private String[] seqs = new String[16];
+	private String[] names = new String[16];
+
+	// allele / read position for each accepted call
+	private int callCount = 0;
+	private int[] callAlleles = new int[256];
+	private int[] callReadPos = new int[256];
+
+	private int rawDepth = 0;
+
+	/**
+	 * Reset this summary and count the calls for a new site.
+	 */
+	public void summarize(List<PileupBaseCall> calls, int minQual) {
+		reset(calls.size());
+
+		for (PileupBaseCall call: calls) {
+			// mpileup doesn't report out indel quality scores, so we just accept them all.
+			if (call.qual > minQual || call.op == PileupBaseCallOp.Ins || call.op == PileupBaseCallOp.Del) {
+				int allele = alleleId(call);
+				if (call.plusStrand) {
+					plus[allele]++;
+				} else {
+					minus[allele]++;
+				}
+				callAlleles[callCount] = allele;
+				callReadPos[callCount] = call.readPos;
+				callCount++;
+			}
+		}
+	}
+
+	private void reset(int depth) {
+		for (int i = 0; i < alleleCount; i++) {
+			plus[i] = 0;
+			minus[i] = 0;
+		}
+		for (int i = BASES; i < alleleCount; i++) {
+			ops[i] = null;
+			seqs[i] = null;
+			names[i] = null;
+		}
+		alleleCount = BASES;
+		callCount = 0;
+		rawDepth = depth;
+
+		if (callAlleles.length < rawDepth) {
+			callAlleles = new int[rawDepth * 2];
+			callReadPos = new int[rawDepth * 2];
+		}
+	}
+
+	/**
+	 * Same as {@link #summarize(List, int)}, for packed calls.
+	 */
+	public void summarize(PackedCalls calls, int minQual) {
+		reset(calls.size());
+
+		final int size = calls.size();
+		for (int i = 0; i < size; i++) {
+			final boolean match = calls.isMatch(i);
+			if (!match || calls.getQual(i) > minQual) {
+				int allele = match ? baseId(calls.getBase(i)) : -1;
+				if (allele == -1) {
+					allele = alleleId(calls.getOp(i), calls.getCall(i), calls.getName(i));
+				}
+				if (calls.isPlusStrand(i)) {
+					plus[allele]++;
+				} else {
+					minus[allele]++;
+				}
+				callAlleles[callCount] = allele;
+				callReadPos[callCount] = calls.getReadPos(i);
+				callCount++;
+			}
+		}
+	}
+
+	/**
+	 * @return the total number of calls (before quality filtering)
+	 */
+	public int getRawDepth() {
+		return rawDepth;
+	}
+
+	/**
+	 * @return the number of allele ids in use (always at least the 5 bases)
+	 */
+	public int getAlleleCount() {
+		return alleleCount;
+	}
+
+	public int getCount(int allele) {
+		return plus[allele] + minus[allele];
+	}
+
+	public int getPlusCount(int allele) {
+		return plus[allele];
+	}
+
+	public int getMinusCount(int allele) {
+		return minus[allele];
+	}
+
+	/**
+	 * @return the call for this allele ("A", "+AG", "-C", ...)
+	 */
+	public String getName(int allele) {
+		if (allele < BASES) {
+			return BASE_NAMES[allele];
+		}
+		return names[allele];
+	}
+
+	/**
+	 * Find the alleles with the highest counts. Ties are broken by allele id (A, C, G, T, N,
+	 * then the other calls in the order they were seen).
+	 *
+	 * @param top - filled with allele ids in decreasing count order; -1 if there are fewer alleles with a count
+	 */
+	public void topAlleles(int[] top) {
+		for (int i = 0; i < top.length; i++) {
+			top[i] = -1;
+		}
+		for (int allele = 0; allele < alleleCount; allele++) {
+			final int count = plus[allele] + minus[allele];
+			if (count == 0) {
+				continue;
+			}
+			// insertion into the (short) top list
+			for (int i = 0; i < top.length; i++) {
+				if (top[i] == -1 || count > getCount(top[i])) {
+					for (int j = top.length - 1; j > i; j--) {
+						top[j] = top[j-1];
+					}
+					top[i] = allele;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of accepted calls
+	 */
+	public int getCallCount() {
+		return callCount;
+	}
+
+	public int getCallAllele(int i) {
+		return callAlleles[i];
+	}
+
+	public int getCallReadPos(int i) {
+		return callReadPos[i];
+	}
+
+	private static int baseId(int base) {
+		switch (base) {
+		case 'A':
+			return A;
+		case 'C':
+			return C;
+		case 'G':
+			return G;
+		case 'T':
+			return T;
+		case 'N':
+			return N;
+		default:
+			return -1;
+		}
+	}
+
+	private int alleleId(PileupBaseCall call) {
+		if (call.op == PileupBaseCallOp.Match && call.call.length() == 1) {
+			int allele = baseId(call.call.charAt(0));
+			if (allele != -1) {
+				return allele;
+			}
+		}
+		return alleleId(call.op, call.call, call.toString());
+	}
+
+	private int alleleId(PileupBaseCallOp op, String call, String name) {
+		for (int i = BASES; i < alleleCount; i++) {
+			if (ops[i] == op && seqs[i].equals(call)) {
+				return i;
+			}
+		}
+
+		if (alleleCount == plus.length) {
+			grow();
+		}
+
+		int allele = alleleCount++;
+		ops[allele] = op;
+		seqs[allele] = call;
+		names[allele] = name;
+		plus[allele] = 0;
+		minus[allele] = 0;
+		return allele;
+	}
+
+	private void grow() {
+		int size = plus.length * 2;
+		int[] newPlus = new int[size];
+		int[] newMinus = new int[size];
+		PileupBaseCallOp[] newOps = new PileupBaseCallOp[size];
+		String[] newSeqs = new String[size];
+		String[] newNames = new String[size];
+
+		System.arraycopy(plus, 0, newPlus, 0, alleleCount);
+		System.arraycopy(minus, 0, newMinus, 0, alleleCount);
+		System.arraycopy(ops, 0, newOps, 0, alleleCount);
+		System.arraycopy(seqs, 0, newSeqs, 0, alleleCount);
+		System.arraycopy(names, 0, newNames, 0, alleleCount);
+
+		plus = newPlus;
+		minus = newMinus;
+		ops = newOps;
+		seqs = newSeqs;
+		names = newNames;
+	}
+}
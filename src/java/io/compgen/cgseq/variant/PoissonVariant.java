@@ -1,15 +1,15 @@
 package io.compgen.cgseq.variant;
 
-import io.compgen.cgseq.support.LRUCache;
-import io.compgen.cgseq.support.MapCount;
-import io.compgen.common.Pair;
+import io.compgen.cgseq.support.PackedCalls;
+import io.compgen.cgseq.support.PrimitiveCache;
+import io.compgen.cgseq.support.Stats;
 import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
-import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
 
 import java.util.List;
 
-import org.apache.commons.math3.distribution.PoissonDistribution;
-
+/**
+ * Reentrant: all per-call state is local (or thread-local), and the p-value caches are thread-safe.
+ */
 public class PoissonVariant {
 	private final boolean backgroundCorrection;
 	private final double expectedAlleleFrequency;
@@ -27,40 +27,64 @@ public class PoissonVariant {
 		this.expectedAlleleFrequency = 0.5;
 	}
 
-	public VariantResults calcVariant(List<PileupBaseCall> calls) {
-		MapCount<String> counter = new MapCount<String>();
-		int rawDepth = 0;
-		for (PileupBaseCall call: calls) {
-			rawDepth ++;
-			if (call.qual > minQual || call.op != PileupBaseCallOp.Match) {
-				counter.incr(call.toString());
-			}
+	/**
+	 * Reusable working state for calling a site (one per thread)
+	 */
+	private static class Scratch {
+		private final AlleleSummary summary = new AlleleSummary();
+		private final int[] topAlleles = new int[3];
+	}
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
 		}
-		
-		List<Pair<String, Integer>> sorted = counter.getSortedCounts();
+	};
+
+	public VariantResults calcVariant(List<PileupBaseCall> calls) {
+		final Scratch scratch = this.scratch.get();
+		scratch.summary.summarize(calls, minQual);
+		return callSummary(scratch);
+	}
+
+	public VariantResults calcVariant(PackedCalls calls) {
+		final Scratch scratch = this.scratch.get();
+		scratch.summary.summarize(calls, minQual);
+		return callSummary(scratch);
+	}
+
+	/**
+	 * Call the site in scratch.summary
+	 */
+	private VariantResults callSummary(Scratch scratch) {
+		final AlleleSummary summary = scratch.summary;
+		final int[] topAlleles = scratch.topAlleles;
+
+		int rawDepth = summary.getRawDepth();
 
-		if (sorted.size()==0) {
+		summary.topAlleles(topAlleles);
+		final int majorAllele = topAlleles[0];
+		final int minorAllele = topAlleles[1];
+
+		if (majorAllele == -1) {
 			return null;
 		}
 
-//		for (Pair<String, Integer> tup: sorted) {
-//			System.out.println(tup.one+"\t"+tup.two);
-//		}
+		String majorCall = summary.getName(majorAllele);
+		String minorCall = "";
 		
-		String majorCall = sorted.get(0).one; 
-		String minorCall = ""; 
-		
-		int major = sorted.get(0).two;
+		int major = summary.getCount(majorAllele);
 		int minor = 0;
 		int bg = 0;
 		
-		if (sorted.size() > 1) {
-			minorCall = sorted.get(1).one;
-			minor = sorted.get(1).two;
+		if (minorAllele != -1) {
+			minorCall = summary.getName(minorAllele);
+			minor = summary.getCount(minorAllele);
 		}		
 		
-		if (sorted.size()>2 && backgroundCorrection) {
-			bg = sorted.get(2).two;
+		if (topAlleles[2] != -1 && backgroundCorrection) {
+			bg = summary.getCount(topAlleles[2]);
 			major = major - bg;
 			minor = minor - bg;
 		}
@@ -69,11 +93,11 @@ public class PoissonVariant {
 			return null;
 		}
 
-		int majorPlusStrandCount = plusCount(calls, majorCall);
+		int majorPlusStrandCount = summary.getPlusCount(majorAllele);
 		int majorMinusStrandCount = major - majorPlusStrandCount;
 //		int majorStrandCount = majorPlusStrandCount < majorMinusStrandCount ? majorPlusStrandCount: majorMinusStrandCount;
 
-		int minorPlusStrandCount = plusCount(calls, minorCall);
+		int minorPlusStrandCount = minorAllele == -1 ? 0 : summary.getPlusCount(minorAllele);
 		int minorMinusStrandCount = minor - minorPlusStrandCount;
 //		int minorStrandCount = minorPlusStrandCount < minorMinusStrandCount ? minorPlusStrandCount: minorMinusStrandCount;
 		
@@ -95,42 +119,23 @@ public class PoissonVariant {
 		return new VariantResults(majorCall, minorCall, rawDepth, majorPvalue - altPvalue);//, majorStrandPval, minorStrandPval);
 	}
 	
-	LRUCache<Pair<Integer, Double>, Double> dCache = new LRUCache<Pair<Integer, Double>, Double>(10000);
+	private final PrimitiveCache dCache = new PrimitiveCache(10000);
 	private double calcCumulativePvalue(int observed, double lambda) {
-		Pair<Integer, Double> k = new Pair<Integer,Double>(observed, lambda);
-		Double pval = dCache.get(k);
-		if (pval == null) {
-			PoissonDistribution poisson = new PoissonDistribution(lambda);
-			pval = poisson.cumulativeProbability(observed);
-			dCache.put(k, pval);
+		double pval = dCache.get(observed, lambda, 0);
+		if (Double.isNaN(pval)) {
+			pval = Stats.poissonCumulativeProb(observed, lambda);
+			dCache.put(observed, lambda, 0, pval);
 		}
 		return pval;
 	}
 	
-	LRUCache<Pair<Integer, Double>, Double> pCache = new LRUCache<Pair<Integer, Double>, Double>(10000);
+	private final PrimitiveCache pCache = new PrimitiveCache(10000);
 	private double calcPvalue(int observed, double lambda) {
-		Pair<Integer, Double> k = new Pair<Integer, Double>(observed, lambda); 
-		Double pval = pCache.get(k);
-		if (pval == null) {
-			PoissonDistribution poisson = new PoissonDistribution(lambda);
-			pval = poisson.probability(observed);
-			pCache.put(k, pval);
+		double pval = pCache.get(observed, lambda, 0);
+		if (Double.isNaN(pval)) {
+			pval = Stats.poissonProb(observed, lambda);
+			pCache.put(observed, lambda, 0, pval);
 		}
 		return pval;
 	}
-	
-	private int plusCount(List<PileupBaseCall> calls, String call) {
-		int plus = 0;
-		for (PileupBaseCall pbc: calls) {
-			if (pbc.qual<minQual) {
-				continue;
-			}
-			if (pbc.toString().equals(call)) {
-				if (pbc.plusStrand) {
-					plus++;
-				}
-			}
-		}
-		return plus;
-	}
 }
@@ -0,0 +1,151 @@
+package io.compgen.cgseq.variant;
+
+/**
+ * A run of consecutive hom-ref sites, written as a single gVCF &lt;NON_REF&gt; record.
+ *
+ * Sites are merged while they are adjacent, on the same chromosome, and have a genotype
+ * quality (GQ) in the same band. Bands are given by their lower bounds, so bounds of
+ * {10, 20} give three bands: [0,10), [10,20), and [20,MAX_GQ]. For each block, the
+ * minimum GQ and the minimum/mean depth are kept.
+ *
+ * Positions are 0-based (as in PileupRecord).
+ */
+public class ReferenceBlock {
+	public static final int MAX_GQ = 99;
+
+	private final int[] bounds;
+
+	private String chrom = null;
+	private String refBase = null;
+	private int start = -1;
+	private int end = -1;
+	private int band = -1;
+
+	private int minGQ = 0;
+	private int minDepth = 0;
+	private long sumDepth = 0;
+
+	/**
+	 * @param bounds - lower bounds for the GQ bands (ascending)
+	 */
+	public ReferenceBlock(int[] bounds) {
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i-1]) {
+				throw new IllegalArgumentException("GQ bands must be in ascending order");
+			}
+		}
+		this.bounds = bounds.clone();
+	}
+
+	/**
+	 * Phred-scaled genotype quality for the probability that a hom-ref call is wrong,
+	 * capped at MAX_GQ.
+	 */
+	public static int toGQ(double qual) {
+		double val = -10 * Math.log10(qual);
+		if (val >= MAX_GQ) {
+			return MAX_GQ;
+		}
+		return (int) val;
+	}
+
+	/**
+	 * @return the band index for a GQ value
+	 */
+	public int band(int gq) {
+		int i = 0;
+		while (i < bounds.length && bounds[i] <= gq) {
+			i++;
+		}
+		return i;
+	}
+
+	public int getBandCount() {
+		return bounds.length + 1;
+	}
+
+	/**
+	 * @return the lowest GQ in a band (inclusive)
+	 */
+	public int getBandMin(int band) {
+		return band == 0 ? 0 : bounds[band - 1];
+	}
+
+	/**
+	 * @return the highest GQ in a band (exclusive, except for the last band)
+	 */
+	public int getBandMax(int band) {
+		return band == bounds.length ? MAX_GQ : bounds[band];
+	}
+
+	public boolean isEmpty() {
+		return chrom == null;
+	}
+
+	/**
+	 * @return true if a hom-ref site can be added to the current block
+	 */
+	public boolean canExtend(String chrom, int pos, int gq) {
+		return this.chrom != null && this.chrom.equals(chrom) && pos == end + 1 && band(gq) == band;
+	}
+
+	/**
+	 * Start a new block (the previous block should have been written already).
+	 */
+	public void start(String chrom, int pos, String refBase, int depth, int gq) {
+		this.chrom = chrom;
+		this.refBase = refBase;
+		this.start = pos;
+		this.end = pos;
+		this.band = band(gq);
+		this.minGQ = gq;
+		this.minDepth = depth;
+		this.sumDepth = depth;
+	}
+
+	/**
+	 * Add the next site to the block (see canExtend).
+	 */
+	public void extend(int pos, int depth, int gq) {
+		end = pos;
+		minGQ = Math.min(minGQ, gq);
+		minDepth = Math.min(minDepth, depth);
+		sumDepth += depth;
+	}
+
+	public void clear() {
+		chrom = null;
+		refBase = null;
+		start = -1;
+		end = -1;
+		band = -1;
+	}
+
+	public String getChrom() {
+		return chrom;
+	}
+
+	public String getRefBase() {
+		return refBase;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int getMinGQ() {
+		return minGQ;
+	}
+
+	public int getMinDepth() {
+		return minDepth;
+	}
+
+	public int getMeanDepth() {
+		return (int) Math.round((double) sumDepth / (end - start + 1));
+	}
+}
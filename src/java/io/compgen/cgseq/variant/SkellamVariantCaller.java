@@ -1,83 +1,50 @@
 package io.compgen.cgseq.variant;
 
-import io.compgen.cgseq.support.LRUCache;
-import io.compgen.cgseq.support.MapCount;
+import io.compgen.cgseq.support.BesselI;
+import io.compgen.cgseq.support.BinomialHalfTable;
+import io.compgen.cgseq.support.IntMannWhitney;
+import io.compgen.cgseq.support.PackedCalls;
+import io.compgen.cgseq.support.PrimitiveCache;
+import io.compgen.cgseq.support.SkellamDepthMemo;
 import io.compgen.cgseq.support.Stats;
 import io.compgen.common.ListBuilder;
-import io.compgen.common.Pair;
+import io.compgen.ngsutils.pileup.PileupRecord;
 import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
 import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupSampleRecord;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.math3.exception.MathIllegalArgumentException;
-import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
 
+/**
+ * Germline (diploid) caller that compares a hom and a het model for the major/minor
+ * counts with Skellam distributions.
+ *
+ * A caller can be shared across threads (see VariantCaller). The configuration is fixed
+ * at construction (apart from the debug/skip-hom-ref switches, which should be set before
+ * the caller is shared), the depth memo and Skellam cache are thread-safe, and the
+ * scratch state used while calling a site is kept per thread.
+ */
 public class SkellamVariantCaller implements VariantCaller {
 	
-	private class SkellamMemoKey {
-		public final int k;
-		public final double mu1;
-		public final double mu2;
-		
-		private SkellamMemoKey(int k, double mu1, double mu2)
-		{
-			this.k = k;
-			this.mu1 = mu1;
-			this.mu2 = mu2;
-		}
+	/**
+	 * Reusable working state for calling a site (one per thread)
+	 */
+	private static class Scratch {
+		private final AlleleSummary summary = new AlleleSummary();
+		private final int[] topAlleles = new int[3];
+		private final IntMannWhitney readPosTest = new IntMannWhitney();
+		private double[] besselWork = new double[BesselI.workspaceSize(256)];
+	}
 
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
 		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + getOuterType().hashCode();
-			result = prime * result + k;
-			long temp;
-			temp = Double.doubleToLongBits(mu1);
-			result = prime * result + (int) (temp ^ (temp >>> 32));
-			temp = Double.doubleToLongBits(mu2);
-			result = prime * result + (int) (temp ^ (temp >>> 32));
-			return result;
+		protected Scratch initialValue() {
+			return new Scratch();
 		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (obj == null) {
-				return false;
-			}
-			if (getClass() != obj.getClass()) {
-				return false;
-			}
-			SkellamMemoKey other = (SkellamMemoKey) obj;
-			if (!getOuterType().equals(other.getOuterType())) {
-				return false;
-			}
-			if (k != other.k) {
-				return false;
-			}
-			if (Double.doubleToLongBits(mu1) != Double
-					.doubleToLongBits(other.mu1)) {
-				return false;
-			}
-			if (Double.doubleToLongBits(mu2) != Double
-					.doubleToLongBits(other.mu2)) {
-				return false;
-			}
-			return true;
-		}
-
-		private VariantCaller getOuterType() {
-			return SkellamVariantCaller.this;
-		}
-	}
-	
-	private final MannWhitneyUTest mwut = new MannWhitneyUTest();
+	};
 
 	private final boolean backgroundCorrection;
 	private final double expectedHeterozygousFrequency;
@@ -85,73 +52,141 @@ public class SkellamVariantCaller implements VariantCaller {
 	private final int minQual;
 	private final int minDepth;
 	
-	private LRUCache<SkellamMemoKey, Double> cache = new LRUCache<SkellamMemoKey, Double>(10000);
-	private List<String> infoFields = Collections.unmodifiableList(new ListBuilder<String>()
-										.add("INDEL")
-										.add("DPR")
+	private final SkellamDepthMemo depthMemo;
+	private final PrimitiveCache cache = new PrimitiveCache(10000);
+	private boolean debug = false;
+	private boolean skipHomRef = false;
+
+	private final List<VariantField> infoFields = Collections.unmodifiableList(new ListBuilder<VariantField>()
+										.add(VariantField.INDEL)
+										.add(VariantField.DPR)
 										.list());
 	
-	private List<String> formatFields = Collections.unmodifiableList(new ListBuilder<String>()
-										.add("GT")
-										.add("DP")
-										.add("DP4")
-										.add("DV")
-										.add("BG")
-										.add("SB")
-										.add("RPB")
-										.add("MSF")
-										.add("DEBUG")
+	private final List<VariantField> formatFields = Collections.unmodifiableList(new ListBuilder<VariantField>()
+										.add(VariantField.GT)
+										.add(VariantField.DP)
+										.add(VariantField.DP4)
+										.add(VariantField.DV)
+										.add(VariantField.BG)
+										.add(VariantField.SB)
+										.add(VariantField.RPB)
+										.add(VariantField.MSF)
+										.list());
+
+	private final List<VariantField> debugFormatFields = Collections.unmodifiableList(new ListBuilder<VariantField>()
+										.addAll(formatFields)
+										.add(VariantField.DEBUG)
 										.list());
 	
-	public SkellamVariantCaller(boolean backgroundCorrection, int minQual, int minDepth, double expectedAlleleFrequency, double expectedHomozygousFrequency) {
+	/**
+	 * @param depthMemo - precomputed Skellam values (see SkellamDepthMemo.load); must be for the same frequencies
+	 */
+	public SkellamVariantCaller(boolean backgroundCorrection, int minQual, int minDepth, double expectedAlleleFrequency, double expectedHomozygousFrequency, SkellamDepthMemo depthMemo) {
+		if (depthMemo.homFreq != expectedHomozygousFrequency || depthMemo.hetFreq != expectedAlleleFrequency) {
+			throw new IllegalArgumentException("Skellam memo frequencies (hom=" + depthMemo.homFreq + ", het=" + depthMemo.hetFreq + ") don't match the caller");
+		}
 		this.backgroundCorrection = backgroundCorrection;
 		this.expectedHomozygousFrequency = expectedHomozygousFrequency;
 		this.expectedHeterozygousFrequency = expectedAlleleFrequency;
 		this.minQual = minQual;
 		this.minDepth = minDepth;
+		this.depthMemo = depthMemo;
+	}
+
+	public SkellamVariantCaller(boolean backgroundCorrection, int minQual, int minDepth, double expectedAlleleFrequency, double expectedHomozygousFrequency) {
+		this(backgroundCorrection, minQual, minDepth, expectedAlleleFrequency, expectedHomozygousFrequency, new SkellamDepthMemo(expectedHomozygousFrequency, expectedAlleleFrequency));
 	}
 
 	public SkellamVariantCaller(boolean backgroundCorrection, int minQual, int minDepth) {
 		this(backgroundCorrection, minQual, minDepth, 0.5, 1.0);
 	}
 
+	/**
+	 * Call a block of sites. Records without calls for the sample are left as null, as are
+	 * clearly hom-ref sites if setSkipHomRef is set (these are never called).
+	 */
+	@Override
+	public int calcVariants(List<PileupRecord> sites, int sample, VariantResults[] results) {
+		if (results.length < sites.size()) {
+			throw new IllegalArgumentException("Results buffer is too small: " + results.length + " < " + sites.size());
+		}
+
+		int found = 0;
+		for (int i = 0; i < sites.size(); i++) {
+			final PileupRecord site = sites.get(i);
+			final PileupSampleRecord sampleRecord = site.getSampleRecords(sample);
+			results[i] = null;
+
+			if (sampleRecord == null || sampleRecord.calls == null) {
+				continue;
+			}
+			if (skipHomRef && isHomRef(sampleRecord.calls, site.refBase)) {
+				continue;
+			}
+
+			results[i] = calcVariant(sampleRecord.calls, site.refBase);
+			if (results[i] != null) {
+				found++;
+			}
+		}
+		return found;
+	}
+
 	/* (non-Javadoc)
 	 * @see io.compgen.cgseq.variant.VariantCaller#calcVariant(java.util.List)
 	 */
 	@Override
 	public VariantResults calcVariant(List<PileupBaseCall> calls, String ref) {
-		MapCount<String> counter = new MapCount<String>();
-		int rawDepth = 0;
-		
-		for (PileupBaseCall call: calls) {
-			rawDepth++;
-			
-			// mpileup doesn't report out indel quality scores, so we just accept them all.
-			if (call.qual > minQual || call.op == PileupBaseCallOp.Ins || call.op == PileupBaseCallOp.Del) {
-				counter.incr(call.toString());
-			}
-		}
-		
-		List<Pair<String, Integer>> sorted = counter.getSortedCounts();
+		final Scratch scratch = this.scratch.get();
+		scratch.summary.summarize(calls, minQual);
+		return callSummary(scratch, ref);
+	}
+
+	/**
+	 * Same as calcVariant(List, String), for packed calls.
+	 */
+	public VariantResults calcVariant(PackedCalls calls, String ref) {
+		final Scratch scratch = this.scratch.get();
+		scratch.summary.summarize(calls, minQual);
+		return callSummary(scratch, ref);
+	}
+
+	/**
+	 * Call the site in scratch.summary
+	 */
+	private VariantResults callSummary(Scratch scratch, String ref) {
+		final AlleleSummary summary = scratch.summary;
+		final int[] topAlleles = scratch.topAlleles;
+
+		int rawDepth = summary.getRawDepth();
 
 		if (rawDepth < minDepth) {
 			return null;
 		}
-		
-		String majorCall = sorted.get(0).one; 
+
+		summary.topAlleles(topAlleles);
+		final int majorAllele = topAlleles[0];
+		final int minorAllele = topAlleles[1];
+
+		if (majorAllele == -1) {
+			// no calls passed the quality filter
+			return null;
+		}
+
+		String majorCall = summary.getName(majorAllele);
 		String minorCall = "";
 		
-		int major = sorted.get(0).two;
+		int major = summary.getCount(majorAllele);
 		int minor = 0;
 		int bg = 0;
 		
-		if (sorted.size() > 1) {
-			minorCall = sorted.get(1).one;
-			minor = sorted.get(1).two;
+		if (minorAllele != -1) {
+			minorCall = summary.getName(minorAllele);
+			minor = summary.getCount(minorAllele);
 		}		
 		
-		if (sorted.size() > 2 && backgroundCorrection) {
-			bg = sorted.get(2).two;
+		if (topAlleles[2] != -1 && backgroundCorrection) {
+			bg = summary.getCount(topAlleles[2]);
 			major = major - bg;
 			minor = minor - bg;
 		}
@@ -160,7 +195,7 @@ public class SkellamVariantCaller implements VariantCaller {
 			return null;
 		}
 
-		int majorPlusStrandCount = plusCount(calls, majorCall);
+		int majorPlusStrandCount = summary.getPlusCount(majorAllele);
 		int majorMinusStrandCount = major - majorPlusStrandCount;
 		double majorMSF = (double) Math.min(majorPlusStrandCount, majorMinusStrandCount) / major;
 		double majorSB = getBinomialProb(Math.min(majorPlusStrandCount, majorMinusStrandCount), major, 0.5);
@@ -171,7 +206,7 @@ public class SkellamVariantCaller implements VariantCaller {
 		double minorSB = 0.0;
 		
 		if (minor > 0) {
-			minorPlusStrandCount = plusCount(calls, minorCall);
+			minorPlusStrandCount = summary.getPlusCount(minorAllele);
 			minorMinusStrandCount = minor - minorPlusStrandCount;
 			minorMSF = (double) Math.min(minorPlusStrandCount, minorMinusStrandCount) / minor;
 			minorSB = getBinomialProb(Math.min(minorPlusStrandCount, minorMinusStrandCount), minor, 0.5);
@@ -181,126 +216,127 @@ public class SkellamVariantCaller implements VariantCaller {
 		double hom = (major + minor) * expectedHomozygousFrequency;
 		double het = (major + minor) * expectedHeterozygousFrequency;
 
-		double probHom;
-		double probHet;
+		double probHom = Double.NaN;
+		double probHet = Double.NaN;
 		
 		double rpb = 0.0;
 		
 		boolean pois = false; // did we use a Poisson test or the Skellam test.
+		boolean hetBetter;
 		
-		try {
-			probHom = getSkellamProb(diff, hom, 1); // probability of hom call assuming 1 alt-call (seq error).
-			probHet = getSkellamProb(diff, het, het);
-		} catch (MathIllegalArgumentException ex) {
-			// if the counts are too high, revert to a plain Poisson based test
-			
-			// probHom = Poisson(major; expected hom count)
-			// probHet = Poisson(minor; expected het count)
-
-			pois = true;
-			probHom = getPoissonProb(major, hom);
-			probHet = getPoissonProb(minor, het);
-		}
-		
-		if (probHom == 0.0 || probHet == 0.0) {
-			// if probHom or probHet is 0.0, that is an underflow in the BesselI function
-			// This means the difference between hom and het calls is great and the depth
-			// is also high.
-			// This should only happen for high depth bases (~300X) YMMV. And at this size, the 
-			// Skellam dist isn't as critical
-
-			// reverting to a plain Poisson based test
-
-			pois = true;
-			probHom = getPoissonProb(major, hom);
-			probHet = getPoissonProb(minor, het);
+		final int threshold = depthMemo.hetThreshold(major + minor);
+		if (threshold != SkellamDepthMemo.NO_THRESHOLD) {
+			// the decision is a comparison against the precomputed minor count, so only the
+			// probability that is reported as the qual needs to be looked up
+			hetBetter = minor >= threshold;
+			if (hetBetter || debug) {
+				probHom = Math.exp(depthMemo.logHom(diff, major + minor));
+			}
+			if (!hetBetter || debug) {
+				probHet = Math.exp(depthMemo.logHet(diff, major + minor));
+			}
+		} else {
+			// Skellam probabilities are compared in log-space, so they don't underflow at high depth.
+			double logProbHom;
+			double logProbHet;
+
+			try {
+				logProbHom = getLogHomProb(diff, major + minor, hom); // probability of hom call assuming 1 alt-call (seq error).
+				logProbHet = getLogHetProb(diff, major + minor, het);
+			} catch (MathIllegalArgumentException ex) {
+				logProbHom = Double.NaN;
+				logProbHet = Double.NaN;
+			}
 			
+			if (Double.isNaN(logProbHom) || Double.isNaN(logProbHet)) {
+				// if the Skellam values can't be calculated, revert to a plain Poisson based test
+				
+				// probHom = Poisson(major; expected hom count)
+				// probHet = Poisson(minor; expected het count)
+	
+				pois = true;
+				probHom = getPoissonProb(major, hom);
+				probHet = getPoissonProb(minor, het);
+				hetBetter = probHet >= probHom;
+			} else {
+				probHom = Math.exp(logProbHom);
+				probHet = Math.exp(logProbHet);
+				hetBetter = logProbHet >= logProbHom;
+			}
 		}
 		
-		
 		VariantResults results;
 		
 		boolean isHet = false;
 		
-		if (probHet >= probHom && minor > 0) {
+		if (hetBetter && minor > 0) {
 			results = new VariantResults(majorCall, minorCall, rawDepth, probHom);
 			isHet = true;
 			if (majorCall.length() > 1 || minorCall.length()>1) {
-				results.addInfo("INDEL");
+				results.setFlag(VariantField.INDEL);
 			}
 
-			List<Integer> majorPos = getReadPos(calls, majorCall);
-			double[] majpos = new double[majorPos.size()];
-			for (int i=0; i<majpos.length; i++){
-				majpos[i] = majorPos.get(i);
-			}
-
-			List<Integer> minorPos = getReadPos(calls, minorCall);
-			double[] minpos = new double[minorPos.size()];
-			for (int i=0; i<minpos.length; i++){
-				minpos[i] = minorPos.get(i);
-			}
-			
-			rpb = mwut.mannWhitneyUTest(majpos, minpos);
-//			System.err.println("MWUT => "+StringUtils.join(",", majpos)+ " vs " + StringUtils.join(",", minpos) +" U= " + mwut.mannWhitneyU(majpos, minpos) +", p=" + rpb);
+			rpb = readPosBias(scratch, majorAllele, minorAllele);
 			
 		} else {
 			results = new VariantResults(majorCall, null, rawDepth, probHet);
 			if (majorCall.length() > 1) {
-				results.addInfo("INDEL");
+				results.setFlag(VariantField.INDEL);
 			}
 		} 
 
-		results.addFormat("BG", bg);
+		results.set(VariantField.BG, bg);
 		
 		// high quality depth
-		results.addFormat("DP", rawDepth);
+		results.set(VariantField.DP, rawDepth);
 		
-		results.addFormat("DEBUG", majorCall+","+minorCall+","+ref+","+probHom+","+probHet+","+major+","+minor+(pois? ",pois":",skel"));
+		if (debug) {
+			results.set(VariantField.DEBUG, majorCall+","+minorCall+","+ref+","+probHom+","+probHet+","+major+","+minor+(pois? ",pois":",skel"));
+		}
 		
 		// high quality non-reference bases
 		if (majorCall.equals(ref)) {
 			// major call is ref, minor call is alt
- 			results.addFormat("DV", minor);
+ 			results.set(VariantField.DV, minor);
  			if (isHet) {
- 				results.addInfo("DPR", major+","+minor);
- 				results.addFormat("GT", "0/1");
- 				results.addFormat("DP4", ""+majorPlusStrandCount+","+majorMinusStrandCount+","+minorPlusStrandCount+","+minorMinusStrandCount);
- 				results.addFormat("MSF", majorMSF + "," + minorMSF);
- 				results.addFormat("SB", majorSB +"," + minorSB);
- 				results.addFormat("RPB", rpb);
+ 				results.set(VariantField.DPR, major, minor);
+ 				results.set(VariantField.GT, "0/1");
+ 				results.set(VariantField.DP4, majorPlusStrandCount, majorMinusStrandCount, minorPlusStrandCount, minorMinusStrandCount);
+ 				results.set(VariantField.MSF, majorMSF, minorMSF);
+ 				results.set(VariantField.SB, majorSB, minorSB);
+ 				results.set(VariantField.RPB, rpb);
  			} else {
-				results.addInfo("DPR", major);
- 				results.addFormat("GT", "0/0");
-				results.addFormat("DP4", ""+majorPlusStrandCount+","+majorMinusStrandCount);
- 				results.addFormat("MSF", majorMSF);
- 				results.addFormat("SB", majorSB);
+				results.set(VariantField.DPR, major);
+ 				results.set(VariantField.GT, "0/0");
+				results.set(VariantField.DP4, majorPlusStrandCount, majorMinusStrandCount);
+ 				results.set(VariantField.MSF, majorMSF);
+ 				results.set(VariantField.SB, majorSB);
 			}
 		} else if (minorCall.equals(ref) || minorCall.equals("")) {
 			// minor call is ref, major call is alt
-			results.addFormat("DV", major);
+			results.set(VariantField.DV, major);
 
 			// even though this isn't a het, we have to return the "minor" values for the ref allele
-			results.addInfo("DPR", minor+","+major);
-			results.addFormat("MSF", minorMSF + "," + majorMSF);
-			results.addFormat("DP4", ""+minorPlusStrandCount+","+minorMinusStrandCount+","+majorPlusStrandCount+","+majorMinusStrandCount);
-			results.addFormat("SB", minorSB +"," + majorSB);
+			results.set(VariantField.DPR, minor, major);
+			results.set(VariantField.MSF, minorMSF, majorMSF);
+			results.set(VariantField.DP4, minorPlusStrandCount, minorMinusStrandCount, majorPlusStrandCount, majorMinusStrandCount);
+			results.set(VariantField.SB, minorSB, majorSB);
 
 			if (isHet) {
- 				results.addFormat("GT", "0/1");
- 				results.addFormat("RPB", rpb);
+ 				results.set(VariantField.GT, "0/1");
+ 				results.set(VariantField.RPB, rpb);
  			} else {
- 				results.addFormat("GT", "1/1");
+ 				results.set(VariantField.GT, "1/1");
 			}
 		} else {
 			// het with two alt alleles
-			results.addInfo("DPR", "0,"+major+","+minor);
-			results.addFormat("GT", "1/2");
-			results.addFormat("DV", major+minor);
-			results.addFormat("DP4", "0,0,"+majorPlusStrandCount+","+majorMinusStrandCount+","+minorPlusStrandCount+","+minorMinusStrandCount);
-			results.addFormat("MSF", "0,"+majorMSF+","+minorMSF);
-			results.addFormat("SB", "0,"+majorSB +"," + minorSB);
-			results.addFormat("RPB", rpb);
+			results.set(VariantField.DPR, 0, major, minor);
+			results.set(VariantField.GT, "1/2");
+			results.set(VariantField.DV, major+minor);
+			results.set(VariantField.DP4, 0, 0, majorPlusStrandCount, majorMinusStrandCount, minorPlusStrandCount, minorMinusStrandCount);
+			results.set(VariantField.MSF, 0, majorMSF, minorMSF);
+			results.set(VariantField.SB, 0, majorSB, minorSB);
+			results.set(VariantField.RPB, rpb);
 		}
 		
 		
@@ -327,6 +363,114 @@ public class SkellamVariantCaller implements VariantCaller {
 
 	}
 
+	/**
+	 * Cheap pre-classification for sites that are clearly homozygous for the reference.
+	 * Most covered positions have no (or one) non-reference call, so this only counts the
+	 * calls, without building an allele summary, strand counts, or results.
+	 *
+	 * This is exact, not a heuristic: if it returns true, calcVariant would either return
+	 * null or a 0/0 call for the site. Sites with more than one non-ref call (or where the
+	 * single non-ref call could still be a het) return false and need the full calculation.
+	 */
+	public boolean isHomRef(List<PileupBaseCall> calls, String ref) {
+		if (calls.size() < minDepth) {
+			return true;
+		}
+
+		int refCount = 0;
+		int nonRefCount = 0;
+
+		for (PileupBaseCall call: calls) {
+			// same filter as AlleleSummary
+			if (call.qual > minQual || call.op == PileupBaseCallOp.Ins || call.op == PileupBaseCallOp.Del) {
+				if (call.op == PileupBaseCallOp.Match && call.call.equals(ref)) {
+					refCount++;
+				} else if (++nonRefCount > 1) {
+					return false;
+				}
+			}
+		}
+
+		return isHomRef(calls.size(), refCount, nonRefCount);
+	}
+
+	/**
+	 * Same as isHomRef(List, String), for packed calls.
+	 */
+	public boolean isHomRef(PackedCalls calls, String ref) {
+		if (calls.size() < minDepth) {
+			return true;
+		}
+
+		final byte refBase = ref.length() == 1 ? (byte) ref.charAt(0) : 0;
+		int refCount = 0;
+		int nonRefCount = 0;
+
+		final int size = calls.size();
+		for (int i = 0; i < size; i++) {
+			final boolean match = calls.isMatch(i);
+			if (!match || calls.getQual(i) > minQual) {
+				if (match && calls.getBase(i) == refBase) {
+					refCount++;
+				} else if (++nonRefCount > 1) {
+					return false;
+				}
+			}
+		}
+
+		return isHomRef(size, refCount, nonRefCount);
+	}
+
+	/**
+	 * Same as isHomRef(calls, ref), from counts (e.g. from a pileup that wasn't fully parsed).
+	 *
+	 * @param calls - number of calls (before quality filtering)
+	 * @param refCount - reference calls that pass the quality filter
+	 * @param nonRefCount - non-reference calls that pass the quality filter (and indels)
+	 */
+	public boolean isHomRef(int calls, int refCount, int nonRefCount) {
+		if (calls < minDepth) {
+			return true;
+		}
+
+		if (nonRefCount > 1) {
+			return false;
+		}
+
+		if (nonRefCount == 0) {
+			// ref only (or nothing passed the filter)
+			return true;
+		}
+
+		if (refCount < 2) {
+			// a 1:1 tie could make the alt the major call
+			return false;
+		}
+
+		// one alt call: it's the minor allele, and there is no background to subtract
+		final int depth = refCount + 1;
+		final int threshold = depthMemo.hetThreshold(depth);
+		if (threshold != SkellamDepthMemo.NO_THRESHOLD) {
+			return 1 < threshold;
+		}
+
+		double logProbHom;
+		double logProbHet;
+		try {
+			logProbHom = getLogHomProb(refCount - 1, depth, depth * expectedHomozygousFrequency);
+			logProbHet = getLogHetProb(refCount - 1, depth, depth * expectedHeterozygousFrequency);
+		} catch (MathIllegalArgumentException ex) {
+			return false;
+		}
+
+		if (Double.isNaN(logProbHom) || Double.isNaN(logProbHet)) {
+			// calcVariant would use the Poisson fallback
+			return false;
+		}
+
+		return logProbHet < logProbHom;
+	}
+
 	/**
 	 * 
 	 * @param k - count
@@ -345,100 +489,142 @@ public class SkellamVariantCaller implements VariantCaller {
 	 * @return
 	 */
 	private double getBinomialProb(int k, int n, double p) {
+		if (p == 0.5) {
+			// strand-bias tests are always p=0.5, so these can be looked up
+			return BinomialHalfTable.cumulativeProb(k, n);
+		}
 		return Stats.binomialCumulativeProb(k, n, p);
 	}
 
 	
+	/**
+	 * Hom model: Skellam(k; hom, 1). Looked up by depth, or calculated if the depth is too high for the memo.
+	 */
+	private double getLogHomProb(int k, int depth, double hom) {
+		double val = depthMemo.logHom(k, depth);
+		if (Double.isNaN(val)) {
+			val = getLogSkellamProb(k, hom, 1);
+		}
+		return val;
+	}
+
+	/**
+	 * Het model: Skellam(k; het, het). Looked up by depth, or calculated if the depth is too high for the memo.
+	 */
+	private double getLogHetProb(int k, int depth, double het) {
+		double val = depthMemo.logHet(k, depth);
+		if (Double.isNaN(val)) {
+			val = getLogSkellamProb(k, het, het);
+		}
+		return val;
+	}
+
 	/**
 	 * 
 	 * @param k - observed difference between two Poisson values
 	 * @param mu1 - mean 1
 	 * @param mu2 - mean 2
-	 * @return
+	 * @return natural log of the Skellam probability
 	 */
-	private double getSkellamProb(int k, double mu1, double mu2) {
-		SkellamMemoKey memo = new SkellamMemoKey(k, mu1, mu2);
-		if (cache.containsKey(memo)) {
-			return cache.get(memo);
+	private double getLogSkellamProb(int k, double mu1, double mu2) {
+		double val = cache.get(k, mu1, mu2);
+		if (!Double.isNaN(val)) {
+			return val;
 		}
 
-		double val = Stats.skellam(k, mu1, mu2);
-		if (Double.isNaN(val)) {
-			val = 0.0;
+		final Scratch scratch = this.scratch.get();
+		if (scratch.besselWork.length < BesselI.workspaceSize(Math.abs(k))) {
+			scratch.besselWork = new double[BesselI.workspaceSize(Math.abs(k) * 2)];
 		}
-		cache.put(memo, val);
+
+		val = Stats.logSkellam(k, mu1, mu2, scratch.besselWork);
+		cache.put(k, mu1, mu2, val);
 		
 		return val;
 	}
 
-	private int plusCount(List<PileupBaseCall> calls, String call) {
-		int plus = 0;
-		for (PileupBaseCall pbc: calls) {
-			if (pbc.qual<minQual && pbc.op == PileupBaseCallOp.Match) {
-				continue;
-			}
-			if (pbc.matches(call)) {
-				if (pbc.plusStrand) {
-					plus++;
-				}
-			}
-		}
-		return plus;
-	}
-
-	private List<Integer> getReadPos(List<PileupBaseCall> calls, String call) {
-		List<Integer> readpos = new ArrayList<Integer>();
-		for (PileupBaseCall pbc: calls) {
-			if (pbc.qual<minQual && pbc.op == PileupBaseCallOp.Match) {
-				continue;
-			}
-			if (pbc.matches(call)) {
-				readpos.add(pbc.readPos);
+	/**
+	 * Mann-Whitney U test comparing the read positions of the major and minor calls.
+	 * Positions come from the allele summary, and are counted into a reusable histogram,
+	 * so there is no sorting or boxing.
+	 */
+	private double readPosBias(Scratch scratch, int majorAllele, int minorAllele) {
+		final AlleleSummary summary = scratch.summary;
+		final IntMannWhitney readPosTest = scratch.readPosTest;
+
+		readPosTest.clear();
+		for (int i = 0; i < summary.getCallCount(); i++) {
+			int allele = summary.getCallAllele(i);
+			if (allele == majorAllele) {
+				readPosTest.addX(summary.getCallReadPos(i));
+			} else if (allele == minorAllele) {
+				readPosTest.addY(summary.getCallReadPos(i));
 			}
 		}
-		return readpos;
+		return readPosTest.pValue();
 	}
 
 	@Override
-	public List<String> getInfoFields() {
+	public List<VariantField> getInfoFields() {
 		return infoFields;
 	}
 
 	@Override
-	public List<String> getFormatFields() {
-		return formatFields;
+	public List<VariantField> getFormatFields() {
+		return debug ? debugFormatFields : formatFields;
+	}
+
+	/**
+	 * Leave clearly hom-ref sites out of calcVariants (see isHomRef), e.g. when only
+	 * variants are written (off by default)
+	 */
+	public void setSkipHomRef(boolean skipHomRef) {
+		this.skipHomRef = skipHomRef;
+	}
+
+	/**
+	 * Add a DEBUG format field with the raw values used for the call (off by default)
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
 	}
 
 	@Override
-	public String getInfoFieldDescription(String k) {
+	public String getInfoFieldDescription(VariantField k) {
 		switch(k) {
-		case "INDEL":
+		case INDEL:
 			return "Number=0,Type=Flag,Description=\"Variant is an IN-DEL.\">";
-		case "DPR":
+		case DPR:
 			return "Number=R,Type=Integer,Description=\"Number of high-quality bases observed for each allele\"";
+		default:
+			break;
 		}
 		return null;
 	}
 
 	@Override
-	public String getFormatFieldDescription(String k) {
+	public String getFormatFieldDescription(VariantField k) {
 		switch(k) {
-		case "GT":
+		case GT:
 			return "Number=1,Type=String,Description=\"Genotype calls\">";
-		case "DP4":
+		case DP4:
 			return "Number=4,Type=Integer,Description=\"Number of high-quality ref-fwd, ref-reverse, alt-fwd and alt-reverse bases (or alt1-fwd, alt1-rev, alt2-fwd, alt2-rev)\">";
-		case "DP":
+		case DP:
 			return "Number=1,Type=Integer,Description=\"# high-quality bases (raw-depth)\"";
-		case "BG":
+		case BG:
 			return "Number=1,Type=Integer,Description=\"Background calls\"";
-		case "DV":
+		case DV:
 			return "Number=1,Type=Integer,Description=\"# high-quality non-reference bases\"";
-		case "SB":
+		case SB:
 			return "Number=R,Type=Integer,Description=\"Strand-bias p-value for each allele (Binomial)\"";
-		case "RPB":
+		case RPB:
 			return "Number=R,Type=Integer,Description=\"Read position bias p-value (Mann-Whitney U Test)\"";
-		case "MSF":
+		case MSF:
 			return "Number=R,Type=Integer,Description=\"Minor strand frequency\"";
+		case DEBUG:
+			return "Number=1,Type=String,Description=\"Debug values (major,minor,ref,prob-hom,prob-het,major-count,minor-count,model)\"";
+		default:
+			break;
 		}
 		return null;
 	}
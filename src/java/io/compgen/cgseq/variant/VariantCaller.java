@@ -1,14 +1,32 @@
 package io.compgen.cgseq.variant;
 
+import io.compgen.ngsutils.pileup.PileupRecord;
 import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
 
 import java.util.List;
 
+/**
+ * Calls a genotype from the base calls at a site.
+ *
+ * Implementations must be reentrant: once it is configured, one caller can be shared by
+ * several threads calling calcVariant/calcVariants at the same time. Scratch state used
+ * while calling a site has to be per thread (or per call), and any shared tables have to
+ * be thread-safe. Configuration setters aren't synchronized, so they should be called
+ * before the caller is shared. Results (and the results buffer for calcVariants) belong
+ * to the calling thread.
+ */
 public interface VariantCaller {
 	public abstract VariantResults calcVariant(List<PileupBaseCall> calls, String ref);
-	public abstract List<String> getInfoFields();
-	public abstract List<String> getFormatFields();
-	public abstract String getInfoFieldDescription(String k);
-	public abstract String getFormatFieldDescription(String k);
+	/**
+	 * Call a block of sites, using the calls for one sample of each record. The result for
+	 * sites[i] is stored in results[i] (null if there is no call).
+	 * 
+	 * @return the number of sites with a result
+	 */
+	public abstract int calcVariants(List<PileupRecord> sites, int sample, VariantResults[] results);
+	public abstract List<VariantField> getInfoFields();
+	public abstract List<VariantField> getFormatFields();
+	public abstract String getInfoFieldDescription(VariantField k);
+	public abstract String getFormatFieldDescription(VariantField k);
 
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package io.compgen.cgseq.variant;
+
+/**
+ * INFO and FORMAT fields that a variant caller can report. The enum name is the VCF ID.
+ */
+public enum VariantField {
+	// INFO
+	INDEL(true, Type.FLAG),
+	DPR(true, Type.INTEGER),
+
+	// FORMAT
+	GT(false, Type.STRING),
+	DP(false, Type.INTEGER),
+	DP4(false, Type.INTEGER),
+	DV(false, Type.INTEGER),
+	BG(false, Type.INTEGER),
+	SB(false, Type.FLOAT),
+	RPB(false, Type.FLOAT),
+	MSF(false, Type.FLOAT),
+	DEBUG(false, Type.STRING);
+
+	public enum Type {
+		FLAG,
+		INTEGER,
+		FLOAT,
+		STRING
+	}
+
+	public final boolean info;
+	public final Type type;
+
+	private VariantField(boolean info, Type type) {
+		this.info = info;
+		this.type = type;
+	}
+}
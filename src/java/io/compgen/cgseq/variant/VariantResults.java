@@ -1,75 +1,147 @@
 package io.compgen.cgseq.variant;
 
-import java.util.HashMap;
-import java.util.Map;
+import io.compgen.cgseq.support.VcfWriter;
 
+/**
+ * The call for a site, and any INFO/FORMAT values the caller reported.
+ *
+ * Values are stored by type (numbers in a flat array, keyed by {@link VariantField}), and
+ * are only converted to text when the result is written out ({@link #appendValue(StringBuilder, VariantField)}).
+ * Most sites are never written (e.g. hom-ref sites with --only-variants), so formatting
+ * them up front is wasted work.
+ */
 public class VariantResults {
+	public static final int MAX_VALUES = 6;
+	private static final int FIELD_COUNT = VariantField.values().length;
+
 	public final String majorCall;
 	public final String minorCall;
 	public final int rawDepth;
 	public final Double qualVal;
 
-	public Map<String, String> info = new HashMap<String, String>();
-	public Map<String, String> format = new HashMap<String, String>();
-	
+	private int present = 0; // bit set of fields with values
+	private final byte[] counts = new byte[FIELD_COUNT];
+	private final double[] values = new double[FIELD_COUNT * MAX_VALUES];
+	private final String[] strings = new String[FIELD_COUNT];
+
 	public VariantResults(String majorCall, String minorCall, int rawDepth, Double qualVal) {		
 		this.majorCall = majorCall;
 		this.minorCall = minorCall;
 		this.rawDepth = rawDepth;
 		this.qualVal = qualVal;
 	}
-	
-	public void addInfo(String k, String v) {
-		info.put(k,  v);
+
+	public void setFlag(VariantField k) {
+		present |= 1 << k.ordinal();
 	}
-	
-	public void addFormat(String k, String v) {
-		format.put(k,  v);
+
+	public void set(VariantField k, String v) {
+		present |= 1 << k.ordinal();
+		strings[k.ordinal()] = v;
 	}
-	
-	public void addInfo(String k, int v) {
-		info.put(k,  ""+v);
+
+	/**
+	 * Set one or more values for a field (up to MAX_VALUES). Integer fields are stored
+	 * as doubles, which is exact for any int.
+	 */
+	public void set(VariantField k, int... v) {
+		present |= 1 << k.ordinal();
+		final int off = k.ordinal() * MAX_VALUES;
+		for (int i = 0; i < v.length; i++) {
+			values[off + i] = v[i];
+		}
+		counts[k.ordinal()] = (byte) v.length;
 	}
-	
-	public void addInfo(String k, double v) {
-		info.put(k,  ""+v);
+
+	public void set(VariantField k, double... v) {
+		present |= 1 << k.ordinal();
+		final int off = k.ordinal() * MAX_VALUES;
+		for (int i = 0; i < v.length; i++) {
+			values[off + i] = v[i];
+		}
+		counts[k.ordinal()] = (byte) v.length;
 	}
-	
-	public void addInfo(String k) {
-		info.put(k, null);
+
+	public boolean contains(VariantField k) {
+		return (present & (1 << k.ordinal())) != 0;
 	}
 
-	public void addFormat(String k, int v) {
-		format.put(k, ""+v);
+	/**
+	 * @return the number of numeric values for this field
+	 */
+	public int getCount(VariantField k) {
+		return counts[k.ordinal()];
 	}
-	
-	public void addFormat(String k, double v) {
-		format.put(k, ""+v);
+
+	public int getInt(VariantField k, int idx) {
+		return (int) values[k.ordinal() * MAX_VALUES + idx];
 	}
-	
-	public void addFormat(String k) {
-		format.put(k, null);
+
+	public double getDouble(VariantField k, int idx) {
+		return values[k.ordinal() * MAX_VALUES + idx];
 	}
 
-	public String getInfo(String k) {
-		return info.get(k);
+	public String getString(VariantField k) {
+		return strings[k.ordinal()];
 	}
-	
-	public String getFormat(String k) {
-		return format.get(k);
+
+	/**
+	 * Write the value(s) of a field (comma separated). Flags have no value.
+	 */
+	public void appendValue(StringBuilder sb, VariantField k) {
+		switch (k.type) {
+		case FLAG:
+			return;
+		case STRING:
+			sb.append(strings[k.ordinal()]);
+			return;
+		default:
+			final int off = k.ordinal() * MAX_VALUES;
+			for (int i = 0; i < counts[k.ordinal()]; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				if (k.type == VariantField.Type.INTEGER) {
+					sb.append((int) values[off + i]);
+				} else {
+					sb.append(values[off + i]);
+				}
+			}
+		}
 	}
-	
-	public boolean containsInfo(String k) {
-		return info.containsKey(k);
+
+	/**
+	 * Same as appendValue(StringBuilder, VariantField), formatted straight into the writer
+	 */
+	public void appendValue(VcfWriter writer, VariantField k) {
+		switch (k.type) {
+		case FLAG:
+			return;
+		case STRING:
+			writer.append(strings[k.ordinal()]);
+			return;
+		default:
+			final int off = k.ordinal() * MAX_VALUES;
+			for (int i = 0; i < counts[k.ordinal()]; i++) {
+				if (i > 0) {
+					writer.append(',');
+				}
+				if (k.type == VariantField.Type.INTEGER) {
+					writer.append((int) values[off + i]);
+				} else {
+					writer.append(values[off + i]);
+				}
+			}
+		}
 	}
-	
-	public boolean containsFormat(String k) {
-		return format.containsKey(k);
+
+	public String format(VariantField k) {
+		StringBuilder sb = new StringBuilder();
+		appendValue(sb, k);
+		return sb.toString();
 	}
 
 	public Double getQual() {
 		return qualVal;
 	}
-
-
 }
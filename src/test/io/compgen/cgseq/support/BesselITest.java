@@ -35,6 +35,69 @@ public class BesselITest {
 
 	}
 	
+	@Test
+	public void testValueWorkspace() {
+		// the same workspace should be reusable for any order that fits
+		double[] work = new double[BesselI.workspaceSize(160)];
+		assertEquals(BesselI.value(0, 1), BesselI.value(0, 1, false, work), 0.0);
+		assertEquals(BesselI.value(160, 2 * Math.sqrt(160)), BesselI.value(160, 2 * Math.sqrt(160), false, work), 0.0);
+		assertEquals(BesselI.value(60, 45), BesselI.value(60, 45, false, work), 0.0);
+		assertEquals(BesselI.value(0, 1, true), BesselI.value(0, 1, true, work), 0.0);
+		assertEquals(BesselI.logValue(100, 100), BesselI.logValue(100, 100, work), 0.0);
+		assertEquals(Stats.skellam(4, 1.0, 2.0), Stats.skellam(4, 1.0, 2.0, work), 0.0);
+	}
+
+	@Test
+	public void testLogValue() {
+		assertEquals(Math.log(1.266066), BesselI.logValue(0, 1), 0.000001);
+		assertEquals(Math.log(405.6376), BesselI.logValue(60, 45), 0.000001);
+		assertEquals(Math.log(4.641535e21), BesselI.logValue(100, 100), 0.000001);
+		assertEquals(Math.log(1.220186e-108), BesselI.logValue(160, 2 * Math.sqrt(160)), 0.000001);
+		assertEquals(Double.NEGATIVE_INFINITY, BesselI.logValue(100, 0), 0.0);
+
+		// these underflow (or overflow) as regular values
+		assertEquals(-714.604464881677, BesselI.logValue(365, 2 * Math.sqrt(365)), 0.000001);
+		assertEquals(1995.280672752657, BesselI.logValue(0, 2000), 0.000001);
+		assertEquals(1994.8805860502034, BesselI.logValue(40, 2000), 0.000001);
+	}
+
+	@Test
+	public void testAsymptotic() {
+		// large orders (Debye) and large x (Hankel) -- x > XLARGE fails with riBesl
+		assertEquals(4994.57246695269, BesselI.logValue(50, 5000), 0.000001);
+		assertEquals(1750.5621022678044, BesselI.logValue(999, 2000), 0.000001);
+		assertEquals(19994.129323940702, BesselI.logValue(0, 20000), 0.000001);
+		assertEquals(14994.269833616037, BesselI.logValue(10, 15000), 0.000001);
+		assertEquals(294.82667572129014, BesselI.logValue(29, 300), 0.000001);
+		assertEquals(0.0028209655492121553, BesselI.value(0, 20000, true), 1e-12);
+		assertEquals(4.68271188239015e-109, BesselI.value(999, 2000, true), 1e-118);
+	}
+
+	@Test
+	public void testDebyeSwitch() {
+		// just above DEBYE_ORDER, for small to moderate x (where the Debye terms are largest)
+		assertEquals(-46.96853149412423, BesselI.logValue(30, 5), 1e-13);
+		assertEquals(-12.444642878623588, BesselI.logValue(30, 15), 1e-13);
+		assertEquals(5.820697781663292, BesselI.logValue(30, 25), 1e-13);
+		assertEquals(13.192839754910693, BesselI.logValue(30, 30), 1e-13);
+		assertEquals(32.41583231679352, BesselI.logValue(30, 45), 1e-13);
+		assertEquals(12.29132757220063, BesselI.logValue(31, 30), 1e-13);
+		assertEquals(5.36509610870795324e+05, BesselI.value(30, 30), 5.36509610870795324e+05 * 1e-13);
+		assertEquals(3.99784497125056490e-21, BesselI.value(30, 5), 3.99784497125056490e-21 * 1e-13);
+	}
+
+	@Test
+	public void testLogSequence() {
+		double[] out = new double[401];
+		BesselI.logSequence(2 * Math.sqrt(400), out.length, out);
+		for (int i=0; i<out.length; i+=40) {
+			assertEquals(BesselI.logValue(i, 2 * Math.sqrt(400)), out[i], 0.0000001);
+		}
+		BesselI.logSequence(2000, 41, out);
+		assertEquals(1995.280672752657, out[0], 0.000001);
+		assertEquals(1994.8805860502034, out[40], 0.000001);
+	}
+
 	private void innerBesselI(int order, double x, double expected) {
 		innerBesselI(order, x, expected, false, 5);
 	}
@@ -0,0 +1,59 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GenomeShardsTest {
+
+	@Test
+	public void testSplit() {
+		List<GenomeSpan> spans = new ArrayList<GenomeSpan>();
+		spans.add(new GenomeSpan("chr1", 0, 1000));
+		spans.add(new GenomeSpan("chr2", 0, 450));
+		spans.add(new GenomeSpan("chrUn1", 0, 30));
+		spans.add(new GenomeSpan("chrUn2", 0, 20));
+
+		List<List<GenomeSpan>> shards = GenomeShards.split(spans, 3);
+		assertEquals(3, shards.size());
+
+		// same bases, in the same order
+		String lastRef = null;
+		int lastEnd = 0;
+		int total = 0;
+		for (List<GenomeSpan> shard: shards) {
+			int size = 0;
+			for (GenomeSpan span: shard) {
+				if (span.ref.equals(lastRef)) {
+					assertEquals(lastEnd, span.start);
+				} else {
+					assertEquals(0, span.start);
+				}
+				lastRef = span.ref;
+				lastEnd = span.end;
+				size += span.end - span.start;
+			}
+			assertTrue(size <= 500);
+			total += size;
+		}
+		assertEquals(1500, total);
+
+		assertEquals(1, shards.get(0).size());
+		assertEquals(new GenomeSpan("chr1", 0, 500), shards.get(0).get(0));
+		assertEquals(new GenomeSpan("chr1", 500, 1000), shards.get(1).get(0));
+		assertEquals(3, shards.get(2).size());
+	}
+
+	@Test
+	public void testMoreShardsThanBases() {
+		List<GenomeSpan> spans = new ArrayList<GenomeSpan>();
+		spans.add(new GenomeSpan("chr1", 0, 3));
+		assertEquals(3, GenomeShards.split(spans, 8).size());
+		assertEquals(0, GenomeShards.split(new ArrayList<GenomeSpan>(), 8).size());
+	}
+}
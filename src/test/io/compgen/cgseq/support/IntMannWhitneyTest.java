@@ -0,0 +1,51 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import org.junit.Test;
+
+public class IntMannWhitneyTest {
+
+	@Test
+	public void testMatchesCommonsMath() {
+		MannWhitneyUTest mwut = new MannWhitneyUTest();
+		IntMannWhitney test = new IntMannWhitney(4);
+		Random rand = new Random(1234);
+
+		for (int iter=0; iter<200; iter++) {
+			double[] x = new double[1 + rand.nextInt(80)];
+			double[] y = new double[1 + rand.nextInt(20)];
+			int range = 1 + rand.nextInt(150);
+
+			test.clear();
+			for (int i=0; i<x.length; i++) {
+				x[i] = rand.nextInt(range);
+				test.addX((int) x[i]);
+			}
+			for (int i=0; i<y.length; i++) {
+				// shift some of the minor samples to get small p-values too
+				y[i] = rand.nextInt(range) + (iter % 3 == 0 ? range / 2 : 0);
+				test.addY((int) y[i]);
+			}
+
+			assertEquals(mwut.mannWhitneyU(x, y), test.u(), 1e-9);
+			assertEquals(mwut.mannWhitneyUTest(x, y), test.pValue(), 1e-12);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		IntMannWhitney test = new IntMannWhitney();
+		test.addX(5);
+		assertTrue(Double.isNaN(test.pValue()));
+		test.addY(5);
+		assertEquals(1.0, test.pValue(), 0.0);
+		test.clear();
+		assertEquals(0, test.getCountX());
+		assertTrue(Double.isNaN(test.pValue()));
+	}
+}
@@ -0,0 +1,36 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import io.compgen.common.Pair;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MapCountTest {
+
+	@Test
+	public void testTopCounts() {
+		Random rand = new Random(42);
+		for (int iter = 0; iter < 100; iter++) {
+			MapCount<String> counter = new MapCount<String>();
+			int n = rand.nextInt(200);
+			for (int i = 0; i < n; i++) {
+				// small counts, so there are lots of ties
+				counter.incr("" + (char) ('A' + rand.nextInt(12)));
+			}
+
+			List<Pair<String, Integer>> sorted = counter.getSortedCounts();
+			String[] keys = new String[3];
+			int[] counts = new int[3];
+			int found = counter.getTopCounts(keys, counts);
+
+			assertEquals(Math.min(3, sorted.size()), found);
+			for (int i = 0; i < found; i++) {
+				assertEquals(sorted.get(i).one, keys[i]);
+				assertEquals((int) sorted.get(i).two, counts[i]);
+			}
+		}
+	}
+}
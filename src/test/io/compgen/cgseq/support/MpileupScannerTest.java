@@ -0,0 +1,141 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.compgen.ngsutils.pileup.PileupRecord;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MpileupScannerTest {
+	private static final String[] LINES = new String[] {
+		"#comment",
+		"chr1\t100\tA\t5\t^I.,$Gg*\tII#I5\t1,2,3,4,5\t3\t.,t\tI5I\t10,20,30",
+		"chr1\t101\tc\t4\t.+2AG,-1a>C\tIIII\t7,8,9,10\t0\t*\t*\t*",
+		"chr2\t5\tT\t3\t,.<\tI+I\t11,12,13\t2\tAa\t!I\t1,2",
+		"chr2\t6\tN\t2\tAc\tII\t1,2\t1\t^!*-3ACG\t5\t9",
+	};
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File write(String name, String text, boolean gzip) throws IOException {
+		File f = new File(tmp.getRoot(), name);
+		OutputStream os = new FileOutputStream(f);
+		if (gzip) {
+			os = new GZIPOutputStream(os);
+		}
+		os.write(text.getBytes("US-ASCII"));
+		os.close();
+		return f;
+	}
+
+	private void assertSame(PileupRecord expected, MpileupScanner actual) {
+		assertEquals(expected.ref, actual.getRef());
+		assertEquals(expected.pos, actual.getPos());
+		assertEquals(expected.refBase, actual.getRefBase());
+		assertEquals(2, actual.getSampleCount());
+		for (int i = 0; i < 2; i++) {
+			assertEquals(expected.getSampleCount(i), actual.getCoverage(i));
+			int calls = expected.getSampleRecords(i).calls == null ? 0 : expected.getSampleRecords(i).calls.size();
+			assertEquals(calls, actual.getCallCount(i));
+		}
+	}
+
+	private void assertSame(PileupRecord expected, int sample, PackedCalls actual) {
+		if (expected.getSampleRecords(sample).calls == null) {
+			assertEquals(0, actual.size());
+			return;
+		}
+		assertEquals(expected.getSampleRecords(sample).calls.size(), actual.size());
+		for (int j = 0; j < actual.size(); j++) {
+			PileupBaseCall e = expected.getSampleRecords(sample).calls.get(j);
+			assertEquals(e.op, actual.getOp(j));
+			assertEquals(e.call, actual.getCall(j));
+			assertEquals(e.toString(), actual.getName(j));
+			assertEquals(e.qual, actual.getQual(j));
+			assertEquals(e.plusStrand, actual.isPlusStrand(j));
+			assertEquals(e.readPos, actual.getReadPos(j));
+		}
+	}
+
+	private void checkFile(File f, int minBaseQual) throws IOException {
+		MpileupScanner scanner = new MpileupScanner(f.getAbsolutePath(), minBaseQual, 13);
+		PackedCalls packed = new PackedCalls();
+		for (int i = 1; i < LINES.length; i++) {
+			assertTrue(scanner.next());
+			PileupRecord expected = PileupRecord.parse(LINES[i], minBaseQual);
+			assertSame(expected, scanner);
+			for (int sample = 0; sample < 2; sample++) {
+				scanner.getCalls(sample, packed);
+				assertSame(expected, sample, packed);
+			}
+		}
+		assertFalse(scanner.next());
+		scanner.close();
+	}
+
+	@Test
+	public void testRecords() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String line: LINES) {
+			sb.append(line);
+			sb.append('\n');
+		}
+		checkFile(write("test.pileup", sb.toString(), false), 0);
+		checkFile(write("test.pileup.gz", sb.toString(), true), 0);
+		checkFile(write("test2.pileup", sb.toString(), false), 20);
+
+		// CRLF, no newline at the end
+		checkFile(write("test3.pileup", sb.toString().replace("\n", "\r\n").trim(), false), 0);
+	}
+
+	@Test
+	public void testCounts() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String line: LINES) {
+			sb.append(line);
+			sb.append('\n');
+		}
+		MpileupScanner scanner = new MpileupScanner(write("test.pileup", sb.toString(), false).getAbsolutePath(), 0, 13);
+
+		assertTrue(scanner.next());
+		assertEquals("chr1", scanner.getRef());
+		assertEquals(99, scanner.getPos());
+		assertEquals("A", scanner.getRefBase());
+		assertEquals(2, scanner.getSampleCount());
+		assertEquals(5, scanner.getCoverage(0));
+		// 'G' has qual 2 (kept, but below the caller filter)
+		assertEquals(4, scanner.getCallCount(0));
+		assertEquals(2, scanner.getRefCalls(0));
+		assertEquals(1, scanner.getNonRefCalls(0));
+		assertEquals(3, scanner.getCoverage(1));
+		assertEquals(2, scanner.getRefCalls(1));
+		assertEquals(1, scanner.getNonRefCalls(1));
+		assertEquals(-1, scanner.getCoverage(2));
+
+		assertTrue(scanner.next());
+		assertEquals("C", scanner.getRefBase());
+		assertEquals(5, scanner.getCallCount(0));
+		assertEquals(3, scanner.getRefCalls(0));
+		assertEquals(2, scanner.getNonRefCalls(0));
+		assertEquals(0, scanner.getCoverage(1));
+		assertEquals(0, scanner.getCallCount(1));
+
+		assertTrue(scanner.next());
+		assertEquals("chr2", scanner.getRef());
+		// '!' is qual 0
+		assertEquals(1, scanner.getCallCount(1));
+		assertEquals(1, scanner.getNonRefCalls(1));
+		scanner.close();
+	}
+}
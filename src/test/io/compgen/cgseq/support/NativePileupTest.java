@@ -0,0 +1,226 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import io.compgen.common.IterUtils;
+import io.compgen.ngsutils.annotation.GenomeSpan;
+import io.compgen.ngsutils.pileup.PileupRecord;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCall;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativePileupTest {
+	private static final String REF = "ACGTTGCAACGTTGCAACGTTGCAACGTTGCAACGTTGCA";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private SAMRecord read(SAMFileHeader header, String name, int flags, int start, String cigar, String seq, int mapq) {
+		return read(header, name, flags, start, cigar, seq, mapq, '?'); // 30
+	}
+
+	private SAMRecord read(SAMFileHeader header, String name, int flags, int start, String cigar, String seq, int mapq, char qual) {
+		SAMRecord rec = new SAMRecord(header);
+		rec.setReadName(name);
+		rec.setFlags(flags);
+		rec.setReferenceName("chr1");
+		rec.setAlignmentStart(start);
+		rec.setCigarString(cigar);
+		rec.setReadString(seq);
+		rec.setBaseQualityString(new String(new char[seq.length()]).replace('\0', qual));
+		rec.setMappingQuality(mapq);
+		return rec;
+	}
+
+	private SAMFileHeader header() {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", REF.length()));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		return header;
+	}
+
+	/**
+	 * Mates for the region 20-26 (1-based), overlapping at 22-24
+	 */
+	private void addPair(SAMFileHeader header, List<SAMRecord> reads, char qual) {
+		SAMRecord mate1 = read(header, "pair", 0x1 | 0x2 | 0x20 | 0x40, 20, "5M", REF.substring(19, 24), 60, qual);
+		SAMRecord mate2 = read(header, "pair", 0x1 | 0x2 | 0x10 | 0x80, 22, "5M", REF.substring(21, 26), 60, qual);
+		mate1.setMateReferenceName("chr1");
+		mate1.setMateAlignmentStart(22);
+		mate1.setInferredInsertSize(7);
+		mate2.setMateReferenceName("chr1");
+		mate2.setMateAlignmentStart(20);
+		mate2.setInferredInsertSize(-7);
+		reads.add(mate1);
+		reads.add(mate2);
+	}
+
+	private NativePileup open(SAMFileHeader header, List<SAMRecord> reads) throws IOException {
+		File fasta = tmp.newFile("ref.fa");
+		FileWriter fw = new FileWriter(fasta);
+		fw.write(">chr1\n" + REF + "\n");
+		fw.close();
+		fw = new FileWriter(new File(fasta.getAbsolutePath() + ".fai"));
+		fw.write("chr1\t" + REF.length() + "\t6\t" + REF.length() + "\t" + (REF.length() + 1) + "\n");
+		fw.close();
+
+		File bam = new File(tmp.getRoot(), "test.bam");
+		SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bam);
+		for (SAMRecord rec: reads) {
+			writer.addAlignment(rec);
+		}
+		writer.close();
+
+		NativePileup pileup = new NativePileup(bam.getAbsolutePath());
+		pileup.setRefFilename(fasta.getAbsolutePath());
+		pileup.setMinMappingQual(10);
+		pileup.setMinBaseQual(13);
+		return pileup;
+	}
+
+	private NativePileup setup() throws IOException {
+		SAMFileHeader header = header();
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		reads.add(read(header, "match", 0, 1, "10M", REF.substring(0, 10), 60));
+		// insertion after pos 4 (reverse strand)
+		reads.add(read(header, "ins", 0x10, 3, "3M2I3M", REF.substring(2, 5) + "TT" + REF.substring(5, 8), 60));
+		// deletion of pos 7-8
+		reads.add(read(header, "del", 0, 5, "2M2D4M", REF.substring(4, 6) + REF.substring(8, 12), 60));
+		reads.add(read(header, "dup", 0x400, 5, "4M", REF.substring(4, 8), 60));
+		reads.add(read(header, "lowmapq", 0, 6, "4M", REF.substring(5, 9), 5));
+
+		// overlapping mates (pos 22-24 are counted once)
+		addPair(header, reads, '?');
+
+		// not a proper pair
+		SAMRecord orphan = read(header, "orphan", 0x1 | 0x8, 32, "5M", REF.substring(31, 36), 60);
+		reads.add(orphan);
+
+		return open(header, reads);
+	}
+
+	private PileupRecord find(List<PileupRecord> records, int pos) {
+		for (PileupRecord record: records) {
+			if (record.pos == pos) {
+				return record;
+			}
+		}
+		return null;
+	}
+
+	private int count(PileupRecord record, PileupBaseCallOp op) {
+		int count = 0;
+		for (PileupBaseCall call: record.getSampleRecords(0).calls) {
+			if (call.op == op) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testPileup() throws IOException {
+		List<PileupRecord> records = new ArrayList<PileupRecord>();
+		for (PileupRecord record: IterUtils.wrap(setup().pileup(null))) {
+			records.add(record);
+		}
+
+		// 0-based positions 0-11 and 19-25 (the orphan is skipped)
+		assertEquals(12 + 7, records.size());
+		assertEquals(0, records.get(0).pos);
+		assertEquals(25, records.get(records.size() - 1).pos);
+		assertNull(find(records, 31));
+
+		PileupRecord first = find(records, 0);
+		assertEquals("A", first.refBase);
+		assertEquals(1, first.getSampleCount(0));
+		assertEquals("A", first.getSampleRecords(0).calls.get(0).call);
+		assertEquals(30, first.getSampleRecords(0).calls.get(0).qual);
+		assertEquals(1, first.getSampleRecords(0).calls.get(0).readPos);
+
+		// dup and low MAPQ reads are filtered
+		assertEquals(3, find(records, 5).getSampleCount(0));
+
+		PileupRecord ins = find(records, 4);
+		assertEquals(1, count(ins, PileupBaseCallOp.Ins));
+		for (PileupBaseCall call: ins.getSampleRecords(0).calls) {
+			if (call.op == PileupBaseCallOp.Ins) {
+				assertEquals("TT", call.call);
+				assertFalse(call.plusStrand);
+				assertEquals(3, call.readPos);
+			}
+		}
+
+		PileupRecord del = find(records, 5);
+		assertEquals(1, count(del, PileupBaseCallOp.Del));
+		for (PileupBaseCall call: del.getSampleRecords(0).calls) {
+			if (call.op == PileupBaseCallOp.Del) {
+				assertEquals(REF.substring(6, 8), call.call);
+				assertTrue(call.plusStrand);
+			}
+		}
+
+		// deleted bases count towards coverage, but have no call
+		PileupRecord deleted = find(records, 6);
+		assertEquals(3, deleted.getSampleCount(0));
+		assertEquals(2, deleted.getSampleRecords(0).calls.size());
+
+		// overlapping mates
+		assertEquals(1, find(records, 20).getSampleRecords(0).calls.size());
+		PileupRecord overlap = find(records, 22);
+		assertEquals(2, overlap.getSampleCount(0));
+		assertEquals(1, overlap.getSampleRecords(0).calls.size());
+		assertEquals(60, overlap.getSampleRecords(0).calls.get(0).qual);
+		assertEquals(1, find(records, 25).getSampleRecords(0).calls.size());
+		assertFalse(find(records, 25).getSampleRecords(0).calls.get(0).plusStrand);
+	}
+
+	@Test
+	public void testOverlapHighQual() throws IOException {
+		// 70 + 70 is over 127 (qualities are unsigned)
+		SAMFileHeader header = header();
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		addPair(header, reads, 'g');
+
+		List<PileupRecord> records = new ArrayList<PileupRecord>();
+		for (PileupRecord record: IterUtils.wrap(open(header, reads).pileup(null))) {
+			records.add(record);
+		}
+		PileupRecord overlap = find(records, 22);
+		assertEquals(2, overlap.getSampleCount(0));
+		assertEquals(1, overlap.getSampleRecords(0).calls.size());
+		assertEquals(140, overlap.getSampleRecords(0).calls.get(0).qual);
+		assertEquals(70, find(records, 20).getSampleRecords(0).calls.get(0).qual);
+	}
+
+	@Test
+	public void testRegion() throws IOException {
+		NativePileup pileup = setup();
+		List<PileupRecord> records = new ArrayList<PileupRecord>();
+		for (PileupRecord record: IterUtils.wrap(pileup.pileup(new GenomeSpan("chr1", 6, 21)))) {
+			records.add(record);
+		}
+		assertEquals(6, records.get(0).pos);
+		assertEquals(20, records.get(records.size() - 1).pos);
+		assertEquals(6 + 2, records.size());
+
+		assertFalse(pileup.pileup(new GenomeSpan("chr1", 12, 19)).hasNext());
+		assertFalse(pileup.pileup(new GenomeSpan("chrX", 0, 100)).hasNext());
+	}
+}
@@ -0,0 +1,51 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.compgen.ngsutils.pileup.PileupRecord.PileupBaseCallOp;
+
+import org.junit.Test;
+
+public class PackedCallsTest {
+
+	@Test
+	public void testPacking() {
+		PackedCalls calls = new PackedCalls();
+		// more than the initial size
+		for (int i = 0; i < 1000; i++) {
+			if (i % 100 == 0) {
+				calls.addIndel(i % 200 == 0 ? PileupBaseCallOp.Ins : PileupBaseCallOp.Del, "AC" + i, i % 300 == 0, i * 1000);
+			} else {
+				calls.addMatch((byte) "ACGTN".charAt(i % 5), i % 94, i % 2 == 0, i * 1000);
+			}
+		}
+
+		assertEquals(1000, calls.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 1000, calls.getReadPos(i));
+			if (i % 100 == 0) {
+				assertFalse(calls.isMatch(i));
+				assertEquals(i % 200 == 0 ? PileupBaseCallOp.Ins : PileupBaseCallOp.Del, calls.getOp(i));
+				assertEquals(-1, calls.getQual(i));
+				assertEquals(i % 300 == 0, calls.isPlusStrand(i));
+				assertEquals("AC" + i, calls.getCall(i));
+				assertEquals((i % 200 == 0 ? "+" : "-") + "AC" + i, calls.getName(i));
+			} else {
+				assertTrue(calls.isMatch(i));
+				assertEquals(PileupBaseCallOp.Match, calls.getOp(i));
+				assertEquals(i % 94, calls.getQual(i));
+				assertEquals(i % 2 == 0, calls.isPlusStrand(i));
+				assertEquals("ACGTN".charAt(i % 5), calls.getBase(i));
+				assertEquals("" + "ACGTN".charAt(i % 5), calls.getName(i));
+			}
+		}
+
+		// reused for the next site
+		calls.clear();
+		assertEquals(0, calls.size());
+		calls.addIndel(PileupBaseCallOp.Del, "G", true, 3);
+		assertEquals(1, calls.size());
+		assertEquals("-G", calls.getName(0));
+	}
+}
@@ -0,0 +1,81 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PrimitiveCacheTest {
+
+	@Test
+	public void testGetPut() {
+		PrimitiveCache cache = new PrimitiveCache(100);
+		assertTrue(cache.getCapacity() >= 100);
+		assertTrue(Double.isNaN(cache.get(3, 1.5, 2.5)));
+
+		cache.put(3, 1.5, 2.5, -12.25);
+		cache.put(-3, 1.5, 2.5, -4.0);
+		assertEquals(-12.25, cache.get(3, 1.5, 2.5), 0.0);
+		assertEquals(-4.0, cache.get(-3, 1.5, 2.5), 0.0);
+		assertTrue(Double.isNaN(cache.get(3, 2.5, 1.5)));
+
+		cache.put(3, 1.5, 2.5, 1.0);
+		assertEquals(1.0, cache.get(3, 1.5, 2.5), 0.0);
+
+		cache.clear();
+		assertTrue(Double.isNaN(cache.get(3, 1.5, 2.5)));
+	}
+
+	@Test
+	public void testEviction() {
+		PrimitiveCache cache = new PrimitiveCache(1000);
+		// keep touching one entry while overfilling the cache -- it should survive
+		cache.put(0, 1.0, 1.0, 42.0);
+		for (int i = 1; i < cache.getCapacity() * 10; i++) {
+			cache.put(i, i * 0.5, 1.0, i);
+			assertEquals(42.0, cache.get(0, 1.0, 1.0), 0.0);
+		}
+
+		int found = 0;
+		for (int i = 1; i < cache.getCapacity() * 10; i++) {
+			double val = cache.get(i, i * 0.5, 1.0);
+			if (!Double.isNaN(val)) {
+				assertEquals(i, val, 0.0);
+				found++;
+			}
+		}
+		assertTrue(found <= cache.getCapacity());
+		assertTrue(found > cache.getCapacity() / 2);
+	}
+
+	@Test
+	public void testThreads() throws InterruptedException {
+		final PrimitiveCache cache = new PrimitiveCache(512);
+		final AtomicInteger errors = new AtomicInteger(0);
+		Thread[] threads = new Thread[8];
+
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 200000; i++) {
+						int k = i % 2000;
+						double mu = k * 0.25;
+						double val = cache.get(k, mu, 1.0);
+						if (Double.isNaN(val)) {
+							cache.put(k, mu, 1.0, k * 3.0);
+						} else if (val != k * 3.0) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.get());
+	}
+}
@@ -0,0 +1,82 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SkellamDepthMemoTest {
+
+	@Test
+	public void testMatchesLogSkellam() {
+		SkellamDepthMemo memo = new SkellamDepthMemo(1.0, 0.5, 400);
+		for (int depth = 1; depth <= 400; depth += 3) {
+			for (int k = 0; k <= depth; k++) {
+				double hom = Stats.logSkellam(k, depth * 1.0, 1);
+				double het = Stats.logSkellam(k, depth * 0.5, depth * 0.5);
+				assertEquals(hom, memo.logHom(k, depth), Math.abs(hom) * 1e-10);
+				assertEquals(het, memo.logHet(k, depth), Math.abs(het) * 1e-10);
+			}
+		}
+	}
+
+	@Test
+	public void testHetThreshold() {
+		SkellamDepthMemo memo = new SkellamDepthMemo(1.0, 0.5, 400);
+		int found = 0;
+		for (int depth = 1; depth <= 400; depth++) {
+			int threshold = memo.hetThreshold(depth);
+			if (threshold == SkellamDepthMemo.NO_THRESHOLD) {
+				continue;
+			}
+			found++;
+			for (int minor = 1; minor * 2 <= depth; minor++) {
+				boolean hetBetter = memo.logHet(depth - 2 * minor, depth) >= memo.logHom(depth - 2 * minor, depth);
+				assertEquals(hetBetter, minor >= threshold);
+			}
+		}
+		assertTrue(found > 390);
+		assertEquals(SkellamDepthMemo.NO_THRESHOLD, memo.hetThreshold(401));
+		assertEquals(SkellamDepthMemo.NO_THRESHOLD, memo.hetThreshold(0));
+	}
+
+	@Test
+	public void testOutOfRange() {
+		SkellamDepthMemo memo = new SkellamDepthMemo(1.0, 0.5, 100);
+		assertTrue(Double.isNaN(memo.logHom(0, 101)));
+		assertTrue(Double.isNaN(memo.logHet(-1, 50)));
+		assertTrue(Double.isNaN(memo.logHet(51, 50)));
+		assertTrue(Double.isNaN(memo.logHom(0, 0)));
+		assertEquals(Stats.logSkellam(3, 30.0, 30.0), memo.logHet(3, 60), 1e-10);
+	}
+
+	@Test
+	public void testMappedFile() throws IOException {
+		File tmp = File.createTempFile("skellam", ".memo");
+		tmp.deleteOnExit();
+
+		SkellamDepthMemo.write(tmp.getAbsolutePath(), 1.0, 0.5, 200);
+		SkellamDepthMemo mapped = SkellamDepthMemo.load(tmp.getAbsolutePath(), 1.0, 0.5);
+		SkellamDepthMemo memo = new SkellamDepthMemo(1.0, 0.5, 200);
+
+		assertEquals(200, mapped.maxDepth);
+		for (int depth = 1; depth <= 200; depth++) {
+			for (int k = 0; k <= depth; k++) {
+				assertEquals(memo.logHom(k, depth), mapped.logHom(k, depth), 0.0);
+				assertEquals(memo.logHet(k, depth), mapped.logHet(k, depth), 0.0);
+			}
+		}
+		assertTrue(Double.isNaN(mapped.logHet(0, 201)));
+
+		try {
+			SkellamDepthMemo.load(tmp.getAbsolutePath(), 1.0, 0.4);
+			fail("Loaded a memo with the wrong frequencies");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
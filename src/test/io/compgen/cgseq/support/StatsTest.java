@@ -2,6 +2,7 @@ package io.compgen.cgseq.support;
 
 import static org.junit.Assert.assertEquals;
 
+import org.apache.commons.math3.special.Gamma;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,6 +22,9 @@ public class StatsTest {
 		System.err.println("Skellam CP: (15, 30) => k=" + Stats.skellamCrossingPoint(15,  30) + ", val="+Stats.skellam(Stats.skellamCrossingPoint(15,  30), 15, 30));
 		System.err.println("Skellam CP: (30, 15) => k=" + Stats.skellamCrossingPoint(30,  15) + ", val="+Stats.skellam(Stats.skellamCrossingPoint(30, 15), 30, 15));
 		System.err.println("Skellam CP: (60, 30) => k=" + Stats.skellamCrossingPoint(60,  30) + ", val="+Stats.skellam(Stats.skellamCrossingPoint(60, 30), 60, 30));
+		assertEquals(-15, Stats.skellamCrossingPoint(15, 30));
+		assertEquals(15, Stats.skellamCrossingPoint(30, 15));
+		assertEquals(30, Stats.skellamCrossingPoint(60, 30));
 	}
 	
 	@Test
@@ -49,9 +53,77 @@ public class StatsTest {
 		
 	}
 	
+	@Test
+	public void testLogSkellam() {
+		assertEquals(Math.log(Stats.skellam(4, 1.0, 2.0)), Stats.logSkellam(4, 1.0, 2.0), 0.0000001);
+		assertEquals(Math.log(Stats.skellam(0, 1.0, 2.0)), Stats.logSkellam(0, 1.0, 2.0), 0.0000001);
+		assertEquals(Math.log(Stats.skellam(160, 160.0, 1)), Stats.logSkellam(160, 160.0, 1), 0.0000001);
+		assertEquals(-2.234875809377782, Stats.logSkellam(-3, 1.0, 2.0), 0.0000001);
+
+		// High depth values (these underflow w/o log-space)
+		assertEquals(-4.37339834309475, Stats.logSkellam(999, 1000.0, 1.0), 0.0000001);
+		assertEquals(-96.96056551586996, Stats.logSkellam(600, 1000.0, 1.0), 0.0000001);
+		assertEquals(-4.7193272473430214, Stats.logSkellam(0, 1000.0, 1000.0), 0.0000001);
+		assertEquals(-5.119413949796479, Stats.logSkellam(40, 1000.0, 1000.0), 0.0000001);
+		assertEquals(-5.268675072245553, Stats.logSkellam(0, 3000.0, 3000.0), 0.0000001);
+	}
+
+	@Test
+	public void testSkellamTable() {
+		SkellamTable table = Stats.skellamTable(1.0, 2.0);
+		assertEquals(0.003056575, table.pmf(4), 0.0000001);
+		assertEquals(0.01337568, table.pmf(3), 0.0000001);
+		assertEquals(0.2117121, table.pmf(0), 0.0000001);
+		assertEquals(0.2384634, table.pmf(-1), 0.0000001);
+		assertEquals(0.0489052, table.pmf(-4), 0.0000001);
+		assertEquals(1.0, table.cdf(table.maxK), 0.0000001);
+		assertEquals(table.cdf(0) + table.pmf(1), table.cdf(1), 0.0000001);
+		
+		table = Stats.skellamTable(1000.0, 1.0);
+		assertEquals(-4.37339834309475, table.logPmf(999), 0.0000001);
+		assertEquals(-96.96056551586996, table.logPmf(600), 0.0000001);
+		assertEquals(1.0, table.cdf(table.maxK), 0.0000001);
+
+		table = Stats.skellamTable(1000.0, 1000.0);
+		assertEquals(-4.7193272473430214, table.logPmf(0), 0.0000001);
+		assertEquals(-5.119413949796479, table.logPmf(-40), 0.0000001);
+		assertEquals(0.5, table.cdf(-1) + table.pmf(0) / 2, 0.0000001);
+	}
+
 	@Test
 	public void testBinomial() {
 		System.err.println("25,100,0.5 => " + Stats.binomialCumulativeProb(25, 100, 0.5));
+		// These vals come from an exact (rational) calculation
+		assertEquals(2.818141017102701e-07, Stats.binomialCumulativeProb(25, 100, 0.5), 1e-18);
+		assertEquals(1.0507287252072348e-10, Stats.binomialCumulativeProb(45, 1000, 0.1), 1e-21);
+		assertEquals(1.5551031824330917e-16, Stats.binomialCumulativeProb(2211, 5000, 0.5), 1e-25);
+		assertEquals(0.5397946186935895, Stats.binomialCumulativeProb(50, 100, 0.5), 1e-12);
+		assertEquals(1.0, Stats.binomialCumulativeProb(100, 100, 0.5), 0.0);
+		assertEquals(0.0, Stats.binomialCumulativeProb(-1, 100, 0.5), 0.0);
+		assertEquals(0.07958923738717877, Stats.binomialProb(50, 100, 0.5), 1e-14);
+	}
+
+	@Test
+	public void testBinomialHalfTable() {
+		for (int n=0; n<=300; n+=7) {
+			for (int k=-1; k<=n+1; k++) {
+				assertEquals(Stats.binomialCumulativeProb(k, n, 0.5), BinomialHalfTable.cumulativeProb(k, n), 1e-12);
+			}
+		}
+		assertEquals(2.818141017102701e-07, BinomialHalfTable.cumulativeProb(25, 100), 1e-18);
+		assertEquals(Stats.binomialCumulativeProb(1500, 5000, 0.5), BinomialHalfTable.cumulativeProb(1500, 5000), 0.0);
+	}
+
+	@Test
+	public void testPoisson() {
+		assertEquals(0.1754673698, Stats.poissonProb(5, 5.0), 0.0000001);
+		assertEquals(0.6159606548, Stats.poissonCumulativeProb(5, 5.0), 0.0000001);
+		assertEquals(0.002792429333, Stats.poissonCumulativeProb(5, 15.0), 0.000000001);
+		assertEquals(0.9604998950, Stats.poissonCumulativeProb(60, 48.0), 0.0000001);
+		assertEquals(0.01261461, Stats.poissonProb(1000, 1000.0), 0.00000001);
+		assertEquals(0.0, Stats.poissonProb(-1, 1000.0), 0.0);
+		assertEquals(Math.log(Stats.poissonProb(20, 12.5)), Stats.poissonLogProb(20, 12.5), 1e-12);
+		assertEquals(Gamma.logGamma(5001), Stats.logFactorial(5000), 1e-9);
 	}
 
 //	@Test
@@ -0,0 +1,103 @@
+package io.compgen.cgseq.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import htsjdk.tribble.readers.TabixReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VcfWriterTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testFormat() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		VcfWriter writer = new VcfWriter(baos);
+		writer.writeLine("##fileformat=VCFv4.1");
+		writer.write("chr1");
+		writer.write(100);
+		writer.write("A");
+		writer.append(',');
+		writer.append(-42);
+		writer.append(',');
+		writer.append(Integer.MIN_VALUE);
+		writer.append(',');
+		writer.append(0);
+		writer.write("");
+		writer.append(0.25);
+		writer.append(';');
+		writer.append(1.0E-7);
+		writer.eol();
+		writer.close();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(0.25).append(';').append(1.0E-7);
+		assertEquals("##fileformat=VCFv4.1\nchr1\t100\tA,-42,-2147483648,0\t" + sb + "\n", baos.toString("US-ASCII"));
+
+		// copied lines (CRLF, no newline at the end)
+		baos = new ByteArrayOutputStream();
+		writer = new VcfWriter(baos);
+		writer.writeLines(new ByteArrayInputStream("a\tb\r\nc\n\nd".getBytes("US-ASCII")));
+		writer.close();
+		assertEquals("a\tb\nc\n\nd\n", baos.toString("US-ASCII"));
+
+		// non-ASCII header text is written as UTF-8
+		baos = new ByteArrayOutputStream();
+		writer = new VcfWriter(baos);
+		writer.writeLine("##source=\u00e9chantillon \u6837\u672c \ud83e\uddec");
+		writer.write("x");
+		writer.append('\u00b5');
+		writer.close();
+		assertEquals("##source=\u00e9chantillon \u6837\u672c \ud83e\uddec\nx\u00b5\n", baos.toString("UTF-8"));
+	}
+
+	private int count(TabixReader reader, String region) throws IOException {
+		TabixReader.Iterator it = reader.query(region);
+		int count = 0;
+		while (it != null && it.next() != null) {
+			count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void testIndex() throws IOException {
+		File f = new File(tmp.getRoot(), "test.vcf.gz");
+		VcfWriter writer = new VcfWriter(f.getAbsolutePath(), null);
+		writer.writeLine("##fileformat=VCFv4.1");
+		writer.writeLine("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample");
+		for (int i = 0; i < 20000; i++) {
+			writer.writeLine("chr1\t" + (i * 10 + 1) + "\t.\tA\tC\t50\t.\tDP=10\tGT\t0/1");
+		}
+		// deletion (REF is 3 bases)
+		writer.writeLine("chr2\t100\t.\tACG\tA\t50\t.\tDP=10\tGT\t0/1");
+		// ref block
+		writer.writeLine("chr2\t1000\t.\tA\t<NON_REF>\t.\t.\tEND=2000\tGT:DP:GQ:MIN_DP\t0/0:10:20:8");
+		writer.close();
+
+		assertTrue(new File(f.getAbsolutePath() + ".tbi").exists());
+
+		TabixReader reader = new TabixReader(f.getAbsolutePath());
+		assertEquals(1, count(reader, "chr1:1-1"));
+		assertEquals(10, count(reader, "chr1:100001-100100"));
+		assertEquals(1, count(reader, "chr1:199991-300000"));
+		assertEquals(1, count(reader, "chr2:102-102"));
+		assertEquals(0, count(reader, "chr2:103-999"));
+		assertEquals(1, count(reader, "chr2:1500-1600"));
+		assertEquals(0, count(reader, "chr2:2001-3000"));
+
+		TabixReader.Iterator it = reader.query("chr2:1500-1600");
+		assertEquals("chr2\t1000\t.\tA\t<NON_REF>\t.\t.\tEND=2000\tGT:DP:GQ:MIN_DP\t0/0:10:20:8", it.next());
+		assertNull(it.next());
+		reader.close();
+	}
+}
@@ -0,0 +1,49 @@
+package io.compgen.cgseq.variant;
+
+import static org.junit.Assert.assertEquals;
+import io.compgen.ngsutils.pileup.PileupRecord;
+
+import org.junit.Test;
+
+public class AlleleSummaryTest {
+
+	@Test
+	public void testSummarize() {
+		// quals: '?' = 30 (filtered), 'I' = 40; indels always count
+		PileupRecord record = PileupRecord.parse("chr1\t100\tA\t8\t..,,Gg+2AGg-1cT\tIIII?III\t1,2,3,4,5,6,7,8", 0);
+
+		AlleleSummary summary = new AlleleSummary();
+		summary.summarize(record.getSampleRecords(0).calls, 30);
+
+		assertEquals(10, summary.getRawDepth());
+		assertEquals(2, summary.getPlusCount(AlleleSummary.A));
+		assertEquals(2, summary.getMinusCount(AlleleSummary.A));
+		assertEquals(0, summary.getPlusCount(AlleleSummary.G));
+		assertEquals(2, summary.getMinusCount(AlleleSummary.G));
+		assertEquals(1, summary.getCount(AlleleSummary.T));
+		assertEquals(7, summary.getAlleleCount());
+		assertEquals("+AG", summary.getName(5));
+		assertEquals(1, summary.getPlusCount(5));
+		assertEquals("-C", summary.getName(6));
+		assertEquals(1, summary.getMinusCount(6));
+
+		int[] top = new int[4];
+		summary.topAlleles(top);
+		assertEquals(AlleleSummary.A, top[0]);
+		assertEquals(AlleleSummary.G, top[1]);
+		assertEquals(AlleleSummary.T, top[2]);
+		assertEquals(5, top[3]);
+
+		assertEquals(9, summary.getCallCount());
+		assertEquals(AlleleSummary.G, summary.getCallAllele(4));
+		assertEquals(6, summary.getCallReadPos(4));
+
+		// reused for the next site
+		record = PileupRecord.parse("chr1\t101\tC\t2\t.,\tII\t1,2", 0);
+		summary.summarize(record.getSampleRecords(0).calls, 30);
+		summary.topAlleles(top);
+		assertEquals(AlleleSummary.C, top[0]);
+		assertEquals(-1, top[1]);
+		assertEquals(5, summary.getAlleleCount());
+	}
+}
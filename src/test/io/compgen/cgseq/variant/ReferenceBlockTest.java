@@ -0,0 +1,59 @@
+package io.compgen.cgseq.variant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReferenceBlockTest {
+
+	@Test
+	public void testBands() {
+		ReferenceBlock block = new ReferenceBlock(new int[] { 10, 20 });
+		assertEquals(3, block.getBandCount());
+		assertEquals(0, block.band(0));
+		assertEquals(0, block.band(9));
+		assertEquals(1, block.band(10));
+		assertEquals(2, block.band(99));
+		assertEquals(10, block.getBandMin(1));
+		assertEquals(20, block.getBandMax(1));
+		assertEquals(ReferenceBlock.MAX_GQ, block.getBandMax(2));
+	}
+
+	@Test
+	public void testToGQ() {
+		assertEquals(20, ReferenceBlock.toGQ(0.01));
+		assertEquals(ReferenceBlock.MAX_GQ, ReferenceBlock.toGQ(1e-20));
+		assertEquals(ReferenceBlock.MAX_GQ, ReferenceBlock.toGQ(0.0));
+	}
+
+	@Test
+	public void testExtend() {
+		ReferenceBlock block = new ReferenceBlock(new int[] { 10, 20 });
+		assertTrue(block.isEmpty());
+		assertFalse(block.canExtend("chr1", 100, 30));
+
+		block.start("chr1", 100, "A", 12, 30);
+		assertTrue(block.canExtend("chr1", 101, 25));
+		block.extend(101, 20, 25);
+		assertTrue(block.canExtend("chr1", 102, 99));
+		block.extend(102, 16, 99);
+
+		// gap, other chrom, other band
+		assertFalse(block.canExtend("chr1", 104, 30));
+		assertFalse(block.canExtend("chr2", 103, 30));
+		assertFalse(block.canExtend("chr1", 103, 15));
+
+		assertEquals("chr1", block.getChrom());
+		assertEquals("A", block.getRefBase());
+		assertEquals(100, block.getStart());
+		assertEquals(102, block.getEnd());
+		assertEquals(25, block.getMinGQ());
+		assertEquals(12, block.getMinDepth());
+		assertEquals(16, block.getMeanDepth());
+
+		block.clear();
+		assertTrue(block.isEmpty());
+	}
+}
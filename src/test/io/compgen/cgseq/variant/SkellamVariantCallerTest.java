@@ -0,0 +1,206 @@
+package io.compgen.cgseq.variant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.compgen.cgseq.support.PackedCalls;
+import io.compgen.cgseq.support.SkellamDepthMemo;
+import io.compgen.ngsutils.pileup.PileupRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SkellamVariantCallerTest {
+
+	private static PileupRecord randomRecord(Random rand, int pos, char ref, int depth, int alts) {
+		String others = "ACGT".replace("" + ref, "");
+		StringBuilder bases = new StringBuilder();
+		StringBuilder quals = new StringBuilder();
+		StringBuilder readPos = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			char base;
+			if (i < alts) {
+				base = others.charAt(rand.nextInt(others.length()));
+				if (rand.nextBoolean()) {
+					base = Character.toLowerCase(base);
+				}
+			} else {
+				base = rand.nextBoolean() ? '.' : ',';
+			}
+			bases.append(base);
+			quals.append((char) (33 + (rand.nextInt(4) == 0 ? 20 : 40)));
+			if (i > 0) {
+				readPos.append(',');
+			}
+			readPos.append(1 + rand.nextInt(100));
+		}
+		return PileupRecord.parse("chr1\t" + pos + "\t" + ref + "\t" + depth + "\t" + bases + "\t" + quals + "\t" + readPos, 0);
+	}
+
+	@Test
+	public void testHomRefFastPath() {
+		SkellamVariantCaller caller = new SkellamVariantCaller(true, 30, 10);
+		PileupRecord record = PileupRecord.parse("chr1\t100\tA\t12\t......,,,,,,\tIIIIIIIIIIII\t1,2,3,4,5,6,7,8,9,10,11,12", 0);
+		assertTrue(caller.isHomRef(record.getSampleRecords(0).calls, record.refBase));
+
+		record = PileupRecord.parse("chr1\t100\tA\t12\t......,,,,Gg\tIIIIIIIIIIII\t1,2,3,4,5,6,7,8,9,10,11,12", 0);
+		assertFalse(caller.isHomRef(record.getSampleRecords(0).calls, record.refBase));
+	}
+
+	@Test
+	public void testHomRefMatchesCalls() {
+		// isHomRef must never skip a site that calcVariant would report as a variant
+		SkellamVariantCaller caller = new SkellamVariantCaller(true, 30, 10);
+		Random rand = new Random(42);
+		int skipped = 0;
+
+		for (int i = 0; i < 5000; i++) {
+			char ref = "ACGT".charAt(rand.nextInt(4));
+			int depth = 1 + rand.nextInt(80);
+			int alts = rand.nextInt(10) == 0 ? rand.nextInt(depth + 1) : rand.nextInt(Math.min(depth, 3) + 1);
+			PileupRecord record = randomRecord(rand, i + 1, ref, depth, alts);
+
+			if (caller.isHomRef(record.getSampleRecords(0).calls, record.refBase)) {
+				skipped++;
+				VariantResults results = caller.calcVariant(record.getSampleRecords(0).calls, record.refBase);
+				if (results != null) {
+					assertTrue(results.majorCall.equals(record.refBase));
+					assertNull(results.minorCall);
+				}
+			}
+		}
+		assertTrue(skipped > 1000);
+	}
+
+	@Test
+	public void testCalcVariants() {
+		SkellamVariantCaller caller = new SkellamVariantCaller(true, 30, 10);
+		SkellamVariantCaller single = new SkellamVariantCaller(true, 30, 10);
+		Random rand = new Random(7);
+
+		List<PileupRecord> sites = new ArrayList<PileupRecord>();
+		for (int i = 0; i < 500; i++) {
+			int depth = 1 + rand.nextInt(60);
+			sites.add(randomRecord(rand, i + 1, "ACGT".charAt(rand.nextInt(4)), depth, rand.nextInt(depth + 1)));
+		}
+
+		VariantResults[] results = new VariantResults[sites.size()];
+		int found = caller.calcVariants(sites, 0, results);
+
+		int expected = 0;
+		for (int i = 0; i < sites.size(); i++) {
+			PileupRecord site = sites.get(i);
+			VariantResults result = single.calcVariant(site.getSampleRecords(0).calls, site.refBase);
+			if (result == null) {
+				assertNull(results[i]);
+				continue;
+			}
+			expected++;
+			assertEquals(result.majorCall, results[i].majorCall);
+			assertEquals(result.minorCall, results[i].minorCall);
+			assertEquals(result.getQual(), results[i].getQual(), 0.0);
+			for (VariantField k: caller.getFormatFields()) {
+				assertEquals(result.format(k), results[i].format(k));
+			}
+		}
+		assertEquals(expected, found);
+
+		// skipped hom-ref sites are left out
+		caller.setSkipHomRef(true);
+		int variants = caller.calcVariants(sites, 0, results);
+		assertTrue(variants < found);
+		for (int i = 0; i < sites.size(); i++) {
+			PileupRecord site = sites.get(i);
+			VariantResults result = single.calcVariant(site.getSampleRecords(0).calls, site.refBase);
+			if (results[i] == null && result != null) {
+				assertEquals(site.refBase, result.majorCall);
+				assertNull(result.minorCall);
+			}
+		}
+	}
+
+	@Test
+	public void testPackedCalls() {
+		SkellamVariantCaller caller = new SkellamVariantCaller(true, 30, 10);
+		Random rand = new Random(3);
+		PackedCalls packed = new PackedCalls();
+
+		List<PileupRecord> sites = new ArrayList<PileupRecord>();
+		for (int i = 0; i < 1000; i++) {
+			int depth = 1 + rand.nextInt(60);
+			sites.add(randomRecord(rand, i + 1, "ACGT".charAt(rand.nextInt(4)), depth, rand.nextInt(depth + 1)));
+		}
+		sites.add(PileupRecord.parse("chr1	100	A	12	......,,,+2AG,+2ag,+2AG.-1C	IIIIIIIIIIII	1,2,3,4,5,6,7,8,9,10,11,12", 0));
+		sites.add(PileupRecord.parse("chr1	101	C	12	......,,,,,,-3ACG	IIIIIIIIIIII	1,2,3,4,5,6,7,8,9,10,11,12", 0));
+
+		for (PileupRecord site: sites) {
+			packed.clear();
+			packed.addAll(site.getSampleRecords(0).calls);
+
+			assertEquals(caller.isHomRef(site.getSampleRecords(0).calls, site.refBase), caller.isHomRef(packed, site.refBase));
+
+			VariantResults expected = caller.calcVariant(site.getSampleRecords(0).calls, site.refBase);
+			VariantResults result = caller.calcVariant(packed, site.refBase);
+			if (expected == null) {
+				assertNull(result);
+				continue;
+			}
+			assertEquals(expected.majorCall, result.majorCall);
+			assertEquals(expected.minorCall, result.minorCall);
+			assertEquals(expected.getQual(), result.getQual(), 0.0);
+			for (VariantField k: caller.getFormatFields()) {
+				assertEquals(expected.format(k), result.format(k));
+			}
+		}
+	}
+
+	@Test
+	public void testSharedAcrossThreads() throws InterruptedException {
+		// small memo, so deeper sites go through the shared Skellam cache
+		final SkellamVariantCaller caller = new SkellamVariantCaller(true, 30, 10, 0.5, 1.0, new SkellamDepthMemo(1.0, 0.5, 20));
+		final SkellamVariantCaller single = new SkellamVariantCaller(true, 30, 10, 0.5, 1.0, new SkellamDepthMemo(1.0, 0.5, 20));
+		Random rand = new Random(11);
+
+		final List<PileupRecord> sites = new ArrayList<PileupRecord>();
+		for (int i = 0; i < 2000; i++) {
+			int depth = 10 + rand.nextInt(150);
+			sites.add(randomRecord(rand, i + 1, "ACGT".charAt(rand.nextInt(4)), depth, rand.nextInt(depth / 2 + 1)));
+		}
+
+		final String[] expected = new String[sites.size()];
+		for (int i = 0; i < sites.size(); i++) {
+			VariantResults result = single.calcVariant(sites.get(i).getSampleRecords(0).calls, sites.get(i).refBase);
+			expected[i] = result == null ? null : result.majorCall + "/" + result.minorCall + ":" + result.getQual() + ":" + result.format(VariantField.RPB);
+		}
+
+		final AtomicInteger errors = new AtomicInteger(0);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					VariantResults[] results = new VariantResults[sites.size()];
+					for (int rep = 0; rep < 5; rep++) {
+						caller.calcVariants(sites, 0, results);
+						for (int i = 0; i < sites.size(); i++) {
+							VariantResults result = results[i];
+							String val = result == null ? null : result.majorCall + "/" + result.minorCall + ":" + result.getQual() + ":" + result.format(VariantField.RPB);
+							if (val == null ? expected[i] != null : !val.equals(expected[i])) {
+								errors.incrementAndGet();
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.get());
+	}
+}
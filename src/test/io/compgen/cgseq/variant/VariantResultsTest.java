@@ -0,0 +1,34 @@
+package io.compgen.cgseq.variant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class VariantResultsTest {
+
+	@Test
+	public void testFormat() {
+		VariantResults results = new VariantResults("A", "+AG", 30, 0.01);
+		results.setFlag(VariantField.INDEL);
+		results.set(VariantField.DPR, 12, 18);
+		results.set(VariantField.GT, "0/1");
+		results.set(VariantField.SB, 0.25, 1e-9);
+		results.set(VariantField.RPB, Double.NaN);
+
+		assertTrue(results.contains(VariantField.INDEL));
+		assertFalse(results.contains(VariantField.DP4));
+		assertEquals("", results.format(VariantField.INDEL));
+		assertEquals("12,18", results.format(VariantField.DPR));
+		assertEquals("0/1", results.format(VariantField.GT));
+		assertEquals("0.25,1.0E-9", results.format(VariantField.SB));
+		assertEquals("NaN", results.format(VariantField.RPB));
+
+		assertEquals(2, results.getCount(VariantField.DPR));
+		assertEquals(18, results.getInt(VariantField.DPR, 1));
+
+		results.set(VariantField.DP4, 1, 2, 3, 4, 5, 6);
+		assertEquals("1,2,3,4,5,6", results.format(VariantField.DP4));
+	}
+}